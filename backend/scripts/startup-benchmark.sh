@@ -0,0 +1,72 @@
+#!/usr/bin/env bash
+# Measures time-to-first-request: from JVM launch until the backend answers its first HTTP request.
+#
+# Usage:
+#   scripts/startup-benchmark.sh [runs] [mode]
+#     runs  number of cold starts to measure (default 5)
+#     mode  "plain" for the fat jar, "cds" for the fast-startup build (default plain)
+#
+# The "cds" mode expects target/cds produced by: ./mvnw -Pfast-startup package
+# Database settings are taken from the usual SPRING_DATASOURCE_* environment variables.
+
+set -euo pipefail
+
+RUNS="${1:-5}"
+MODE="${2:-plain}"
+PORT="${SERVER_PORT:-8082}"
+PROBE_URL="http://localhost:${PORT}/api/files/user"
+TIMEOUT_SECONDS=120
+
+cd "$(dirname "$0")/.."
+
+case "$MODE" in
+  plain)
+    JAR="$(ls target/nebulashare-*.jar | grep -v '\.original$' | head -n 1)"
+    CMD=(java -jar "$JAR")
+    ;;
+  cds)
+    cd target/cds
+    CMD=(java -XX:SharedArchiveFile=app.jsa -Dspring.aot.enabled=true -jar "$(ls nebulashare-*.jar | head -n 1)")
+    ;;
+  *)
+    echo "Unknown mode: $MODE (expected plain or cds)" >&2
+    exit 1
+    ;;
+esac
+
+now_ms() {
+  date +%s%3N
+}
+
+results=()
+for run in $(seq 1 "$RUNS"); do
+  start=$(now_ms)
+  "${CMD[@]}" --server.port="$PORT" > "/tmp/nebulashare-startup-${run}.log" 2>&1 &
+  pid=$!
+
+  # Any HTTP status (401/403 included) means the request made it through the servlet stack
+  elapsed=""
+  while kill -0 "$pid" 2>/dev/null; do
+    if curl -s -o /dev/null "$PROBE_URL"; then
+      elapsed=$(( $(now_ms) - start ))
+      break
+    fi
+    if (( $(now_ms) - start > TIMEOUT_SECONDS * 1000 )); then
+      break
+    fi
+    sleep 0.05
+  done
+
+  kill "$pid" 2>/dev/null || true
+  wait "$pid" 2>/dev/null || true
+
+  if [[ -z "$elapsed" ]]; then
+    echo "Run $run: backend did not answer, see /tmp/nebulashare-startup-${run}.log" >&2
+    exit 1
+  fi
+  echo "Run $run: time-to-first-request ${elapsed} ms"
+  results+=("$elapsed")
+done
+
+sorted=($(printf '%s\n' "${results[@]}" | sort -n))
+echo "Mode: $MODE, runs: $RUNS, median: ${sorted[$(( RUNS / 2 ))]} ms, min: ${sorted[0]} ms, max: ${sorted[$(( RUNS - 1 ))]} ms"
@@ -0,0 +1,136 @@
+package com.example.nebulashare.config;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Concurrency limit that follows the latency it observes, in the style of a gradient limiter.
+ *
+ * Completed requests are gathered into short sampling windows. The no-load baseline is a slow-moving
+ * average of windows in which the pool used less than half its limit, when nothing can be queueing.
+ * Under load, each window's average latency is compared with it: while the two stay close the limit
+ * grows by about its square root, and once latency rises above the baseline the limit shrinks in
+ * proportion. A window with a failed request cuts the limit by a tenth instead, AIMD-style.
+ *
+ * The latency fed in must not grow with the size of the request, or a single large transfer would read as
+ * queueing; {@link ConcurrencyLimitFilter} reports server-side time to first byte, normalised by body size.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private static final long WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int MIN_WINDOW_SAMPLES = 10;
+    // Windows the baseline average spans
+    private static final double BASELINE_WINDOWS = 50;
+    private static final double SMOOTHING = 0.2;
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double rttTolerance;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongSupplier nanoClock;
+
+    private volatile double limit;
+    private double baselineRttNanos;
+
+    // Current sampling window, guarded by this
+    private long windowStart;
+    private long windowRttSum;
+    private int windowSamples;
+    private int windowMaxInFlight;
+    private boolean windowDropped;
+
+    public AdaptiveConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit, double rttTolerance) {
+        this(name, initialLimit, minLimit, maxLimit, rttTolerance, System::nanoTime);
+    }
+
+    AdaptiveConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit, double rttTolerance, LongSupplier nanoClock) {
+        this.name = name;
+        this.nanoClock = nanoClock;
+        this.windowStart = nanoClock.getAsLong();
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.rttTolerance = rttTolerance;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * Takes a slot if the pool is below its limit.
+     *
+     * @return Whether the request may proceed; if so, {@link #release} must be called once it finishes.
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= (int) limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Gives the slot back and feeds the request's outcome into the limit.
+     *
+     * @param rttNanos How long the server took over the request, independent of how much data it moved.
+     * @param dropped Whether it failed in a way that signals overload, such as a pool or query timeout.
+     */
+    public void release(long rttNanos, boolean dropped) {
+        int inFlightBefore = inFlight.getAndDecrement();
+        sample(rttNanos, inFlightBefore, dropped);
+    }
+
+    private synchronized void sample(long rttNanos, int inFlightBefore, boolean dropped) {
+        windowRttSum += rttNanos;
+        windowSamples++;
+        windowMaxInFlight = Math.max(windowMaxInFlight, inFlightBefore);
+        windowDropped |= dropped;
+
+        long now = nanoClock.getAsLong();
+        if (now - windowStart < WINDOW_NANOS || (windowSamples < MIN_WINDOW_SAMPLES && !windowDropped)) {
+            return;
+        }
+        updateLimit((double) windowRttSum / windowSamples);
+
+        windowStart = now;
+        windowRttSum = 0;
+        windowSamples = 0;
+        windowMaxInFlight = 0;
+        windowDropped = false;
+    }
+
+    private void updateLimit(double rttNanos) {
+        double current = limit;
+        if (windowDropped) {
+            limit = Math.max(minLimit, current * BACKOFF_RATIO);
+            return;
+        }
+
+        // A pool using less than half its limit is not queueing, so this is what unloaded latency looks like;
+        // it also says nothing about whether the limit is too low
+        if (baselineRttNanos == 0 || windowMaxInFlight < current / 2) {
+            baselineRttNanos = baselineRttNanos == 0 ? rttNanos : baselineRttNanos + (rttNanos - baselineRttNanos) / BASELINE_WINDOWS;
+            return;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, rttTolerance * baselineRttNanos / rttNanos));
+        double target = current * gradient + Math.sqrt(current);
+        limit = Math.max(minLimit, Math.min(maxLimit, current * (1 - SMOOTHING) + target * SMOOTHING));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+}
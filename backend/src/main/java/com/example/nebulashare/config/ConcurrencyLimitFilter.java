@@ -0,0 +1,310 @@
+package com.example.nebulashare.config;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.SQLTransientException;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Sheds load on the expensive endpoints before it can queue up behind the disk or the database.
+ *
+ * Uploads, downloads and authentication each get their own {@link AdaptiveConcurrencyLimiter}, so a
+ * flood of one cannot starve the others. Requests over the limit are answered with 503 and
+ * {@code Retry-After} straight away. The filter runs ahead of {@link JwtRequestFilter}, so a shed
+ * request never costs a user lookup.
+ *
+ * How long a transfer takes depends on the file size and the client's bandwidth, not on how busy the
+ * server is, so the latency reported to the limiters is the time until the first response byte, minus
+ * the time spent waiting for the client to send the request body, per MiB of body. Only failures that
+ * mean the server ran out of capacity (pool, lock or query timeouts, rejected work, 503/504) count as
+ * drops; a client hanging up or a missing file says nothing about load.
+ */
+@Component
+public class ConcurrencyLimitFilter extends OncePerRequestFilter {
+
+    private static final long NORMALISATION_BYTES = 1024 * 1024;
+
+    @Value("${limiter.enabled:true}")
+    private boolean enabled;
+
+    @Value("${limiter.min-limit:4}")
+    private int minLimit;
+
+    @Value("${limiter.rtt-tolerance:1.5}")
+    private double rttTolerance;
+
+    @Value("${limiter.retry-after-seconds:1}")
+    private int retryAfterSeconds;
+
+    @Value("${limiter.upload.initial-limit:20}")
+    private int uploadInitialLimit;
+
+    @Value("${limiter.upload.max-limit:200}")
+    private int uploadMaxLimit;
+
+    @Value("${limiter.download.initial-limit:50}")
+    private int downloadInitialLimit;
+
+    @Value("${limiter.download.max-limit:500}")
+    private int downloadMaxLimit;
+
+    @Value("${limiter.auth.initial-limit:20}")
+    private int authInitialLimit;
+
+    @Value("${limiter.auth.max-limit:100}")
+    private int authMaxLimit;
+
+    private AdaptiveConcurrencyLimiter uploadLimiter;
+    private AdaptiveConcurrencyLimiter downloadLimiter;
+    private AdaptiveConcurrencyLimiter authLimiter;
+
+    @PostConstruct
+    public void init() {
+        uploadLimiter = new AdaptiveConcurrencyLimiter("upload", uploadInitialLimit, minLimit, uploadMaxLimit, rttTolerance);
+        downloadLimiter = new AdaptiveConcurrencyLimiter("download", downloadInitialLimit, minLimit, downloadMaxLimit, rttTolerance);
+        authLimiter = new AdaptiveConcurrencyLimiter("auth", authInitialLimit, minLimit, authMaxLimit, rttTolerance);
+    }
+
+    public List<AdaptiveConcurrencyLimiter> getLimiters() {
+        return List.of(uploadLimiter, downloadLimiter, authLimiter);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !enabled || limiterFor(request) == null;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        AdaptiveConcurrencyLimiter limiter = limiterFor(request);
+        if (!limiter.tryAcquire()) {
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            response.getWriter().write("{\"message\":\"Server is busy, please retry shortly.\"}");
+            return;
+        }
+
+        long start = System.nanoTime();
+        TimedRequest timedRequest = new TimedRequest(request);
+        TimedResponse timedResponse = new TimedResponse(response);
+        Throwable failure = null;
+        try {
+            chain.doFilter(timedRequest, timedResponse);
+        } catch (IOException | ServletException | RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            limiter.release(serverLatency(start, timedRequest, timedResponse), isOverload(failure, response.getStatus()));
+        }
+    }
+
+    // Time to first byte, without time spent waiting on the client's body, scaled to a body of at most 1 MiB
+    private static long serverLatency(long start, TimedRequest request, TimedResponse response) {
+        long end = response.firstByteNanos != 0 ? response.firstByteNanos : System.nanoTime();
+        long latency = Math.max(0, end - start - request.readNanos);
+        long bodyBytes = Math.max(request.bytesRead, request.getContentLengthLong());
+        return latency / (1 + bodyBytes / NORMALISATION_BYTES);
+    }
+
+    // Whether a request failed because the server is overloaded, as opposed to a client or application error
+    static boolean isOverload(Throwable failure, int status) {
+        if (failure != null) {
+            return isOverload(failure);
+        }
+        return status == HttpStatus.SERVICE_UNAVAILABLE.value() || status == HttpStatus.GATEWAY_TIMEOUT.value();
+    }
+
+    /**
+     * Whether an exception, or anything it wraps, means the server ran out of capacity (pool, lock or query
+     * timeouts, rejected work) rather than that the request itself was bad.
+     */
+    public static boolean isOverload(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof TransientDataAccessException || cause instanceof CannotCreateTransactionException
+                    || cause instanceof CannotGetJdbcConnectionException || cause instanceof SQLTransientException
+                    || cause instanceof TimeoutException || cause instanceof RejectedExecutionException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private AdaptiveConcurrencyLimiter limiterFor(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        if (path.startsWith("/api/auth/")) {
+            return authLimiter;
+        }
+        if ("POST".equals(request.getMethod()) && WebConfig.STREAMING_UPLOAD_PATH.equals(path)) {
+            return uploadLimiter;
+        }
+        if ("GET".equals(request.getMethod()) && (path.startsWith("/api/files/download/") || path.startsWith("/api/dl/"))) {
+            return downloadLimiter;
+        }
+        return null;
+    }
+
+    // Tracks how long the handler spends blocked on the request body and how much of it arrives
+    private static final class TimedRequest extends HttpServletRequestWrapper {
+        private long readNanos;
+        private long bytesRead;
+        private ServletInputStream timedStream;
+
+        private TimedRequest(HttpServletRequest request) {
+            super(request);
+        }
+
+        @Override
+        public ServletInputStream getInputStream() throws IOException {
+            if (timedStream == null) {
+                ServletInputStream in = super.getInputStream();
+                timedStream = new ServletInputStream() {
+                    @Override
+                    public int read() throws IOException {
+                        long start = System.nanoTime();
+                        int value = in.read();
+                        readNanos += System.nanoTime() - start;
+                        if (value >= 0) {
+                            bytesRead++;
+                        }
+                        return value;
+                    }
+
+                    @Override
+                    public int read(byte[] buffer, int offset, int length) throws IOException {
+                        long start = System.nanoTime();
+                        int read = in.read(buffer, offset, length);
+                        readNanos += System.nanoTime() - start;
+                        if (read > 0) {
+                            bytesRead += read;
+                        }
+                        return read;
+                    }
+
+                    @Override
+                    public boolean isFinished() {
+                        return in.isFinished();
+                    }
+
+                    @Override
+                    public boolean isReady() {
+                        return in.isReady();
+                    }
+
+                    @Override
+                    public void setReadListener(ReadListener listener) {
+                        in.setReadListener(listener);
+                    }
+                };
+            }
+            return timedStream;
+        }
+    }
+
+    // Notes when the handler starts sending its response
+    private static final class TimedResponse extends HttpServletResponseWrapper {
+        private long firstByteNanos;
+        private ServletOutputStream timedStream;
+
+        private TimedResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        private void markFirstByte() {
+            if (firstByteNanos == 0) {
+                firstByteNanos = System.nanoTime();
+            }
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (timedStream == null) {
+                ServletOutputStream out = super.getOutputStream();
+                timedStream = new ServletOutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        markFirstByte();
+                        out.write(b);
+                    }
+
+                    @Override
+                    public void write(byte[] buffer, int offset, int length) throws IOException {
+                        markFirstByte();
+                        out.write(buffer, offset, length);
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        markFirstByte();
+                        out.flush();
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        markFirstByte();
+                        out.close();
+                    }
+
+                    @Override
+                    public boolean isReady() {
+                        return out.isReady();
+                    }
+
+                    @Override
+                    public void setWriteListener(WriteListener listener) {
+                        out.setWriteListener(listener);
+                    }
+                };
+            }
+            return timedStream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            markFirstByte();
+            return super.getWriter();
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            markFirstByte();
+            super.flushBuffer();
+        }
+
+        @Override
+        public void sendError(int status, String message) throws IOException {
+            markFirstByte();
+            super.sendError(status, message);
+        }
+
+        @Override
+        public void sendError(int status) throws IOException {
+            markFirstByte();
+            super.sendError(status);
+        }
+    }
+}
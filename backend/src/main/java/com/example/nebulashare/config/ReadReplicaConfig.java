@@ -0,0 +1,82 @@
+package com.example.nebulashare.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.util.StringUtils;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splits reads from writes.
+ * Transactions marked {@code @Transactional(readOnly = true)} get their connection from the read replicas,
+ * everything else goes to the primary. The connection is only fetched on first use, once the transaction's
+ * read-only flag is known. With no replicas configured, every query goes to the primary as before.
+ */
+@Configuration
+public class ReadReplicaConfig {
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("primary");
+        return dataSource;
+    }
+
+    @Bean
+    public ReplicaRoutingDataSource replicaRoutingDataSource(HikariDataSource primaryDataSource,
+                                                             DataSourceProperties properties,
+                                                             @Value("${db.replica.urls:}") List<String> urls,
+                                                             @Value("${db.replica.username:}") String username,
+                                                             @Value("${db.replica.password:}") String password,
+                                                             @Value("${db.replica.pool-size:10}") int poolSize,
+                                                             @Value("${db.replica.max-lag-seconds:5}") long maxLagSeconds,
+                                                             @Value("${db.replica.lag-query:SHOW REPLICA STATUS}") String lagQuery,
+                                                             @Value("${db.replica.connection-timeout-ms:1000}") long connectionTimeoutMillis,
+                                                             @Value("${db.replica.validation-timeout-ms:500}") long validationTimeoutMillis,
+                                                             @Value("${db.replica.health-check-interval-ms:5000}") long healthCheckIntervalMillis) {
+        List<HikariDataSource> replicas = new ArrayList<>();
+        for (String url : urls) {
+            if (!StringUtils.hasText(url)) {
+                continue;
+            }
+            HikariDataSource replica = new HikariDataSource();
+            replica.setPoolName("replica-" + (replicas.size() + 1));
+            replica.setJdbcUrl(url.trim());
+            replica.setUsername(StringUtils.hasText(username) ? username : properties.determineUsername());
+            replica.setPassword(StringUtils.hasText(password) ? password : properties.determinePassword());
+            replica.setMaximumPoolSize(poolSize);
+            replica.setReadOnly(true);
+            // Fail fast: a replica that stops answering must not stall requests that could be served by the primary
+            replica.setConnectionTimeout(connectionTimeoutMillis);
+            replica.setValidationTimeout(validationTimeoutMillis);
+            // Don't block startup on a replica that is down; the health check keeps it out of rotation
+            replica.setInitializationFailTimeout(-1);
+            replicas.add(replica);
+        }
+
+        int validationTimeoutSeconds = (int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(validationTimeoutMillis));
+        ReplicaRoutingDataSource routingDataSource = new ReplicaRoutingDataSource(primaryDataSource, replicas, maxLagSeconds,
+                lagQuery, validationTimeoutSeconds);
+        routingDataSource.checkReplicas();
+        routingDataSource.startHealthChecks(healthCheckIntervalMillis);
+        return routingDataSource;
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(HikariDataSource primaryDataSource, ReplicaRoutingDataSource replicaRoutingDataSource) {
+        LazyConnectionDataSourceProxy dataSource = new LazyConnectionDataSourceProxy(primaryDataSource);
+        dataSource.setReadOnlyDataSource(replicaRoutingDataSource);
+        return dataSource;
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.nebulashare.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.util.StringUtils;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Read-only side of the datasource split.
+ * Hands out connections from the healthy read replicas in round-robin order and falls back to the
+ * primary when no replica is reachable or every replica lags further behind than allowed.
+ */
+public class ReplicaRoutingDataSource extends AbstractDataSource implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicaRoutingDataSource.class);
+
+    private final DataSource primary;
+    private final List<Replica> replicas;
+    private final long maxLagSeconds;
+    private final String lagQuery;
+    private final int validationTimeoutSeconds;
+    private final AtomicInteger next = new AtomicInteger();
+
+    private final ScheduledExecutorService healthChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "replica-health-check");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ReplicaRoutingDataSource(DataSource primary, List<HikariDataSource> replicas, long maxLagSeconds, String lagQuery,
+                                    int validationTimeoutSeconds) {
+        this.primary = primary;
+        this.replicas = replicas.stream().map(Replica::new).toList();
+        this.maxLagSeconds = maxLagSeconds;
+        this.lagQuery = lagQuery;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+    }
+
+    private static final class Replica {
+        private final HikariDataSource dataSource;
+        // Replicas start out unhealthy until the first check has seen them
+        private volatile boolean healthy;
+        private volatile long lagSeconds = -1;
+
+        private Replica(HikariDataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        Replica replica = selectReplica();
+        if (replica != null) {
+            try {
+                return replica.dataSource.getConnection();
+            } catch (SQLException e) {
+                // Take it out of rotation right away rather than making every request wait out the timeout until the next check
+                replica.healthy = false;
+                log.warn("Read replica {} connection failed, falling back to primary: {}", replica.dataSource.getPoolName(), e.getMessage());
+            }
+        }
+        return primary.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return getConnection();
+    }
+
+    // Pick the next healthy replica, or null if none qualifies
+    private Replica selectReplica() {
+        int size = replicas.size();
+        if (size == 0) {
+            return null;
+        }
+        int start = Math.floorMod(next.getAndIncrement(), size);
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get((start + i) % size);
+            if (replica.healthy) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Runs {@link #checkReplicas} periodically on a dedicated thread, so a hanging replica cannot hold up
+     * other scheduled work and other scheduled work cannot delay taking a dead replica out of rotation.
+     *
+     * @param intervalMillis The delay between two checks.
+     */
+    public void startHealthChecks(long intervalMillis) {
+        if (replicas.isEmpty()) {
+            return;
+        }
+        healthChecker.scheduleWithFixedDelay(() -> {
+            try {
+                checkReplicas();
+            } catch (RuntimeException e) {
+                log.warn("Read replica health check failed", e);
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Probes every replica for liveness and, when a lag query is configured, for replication lag.
+     */
+    public void checkReplicas() {
+        for (Replica replica : replicas) {
+            boolean wasHealthy = replica.healthy;
+            try (Connection connection = replica.dataSource.getConnection()) {
+                long lag = StringUtils.hasText(lagQuery) ? queryLagSeconds(connection) : 0;
+                replica.lagSeconds = lag;
+                replica.healthy = connection.isValid(validationTimeoutSeconds) && lag >= 0 && lag <= maxLagSeconds;
+            } catch (SQLException e) {
+                replica.healthy = false;
+                replica.lagSeconds = -1;
+            }
+
+            if (wasHealthy != replica.healthy) {
+                log.info("Read replica {} is now {} (lag {}s)", replica.dataSource.getPoolName(),
+                        replica.healthy ? "healthy" : "unhealthy", replica.lagSeconds);
+            }
+        }
+    }
+
+    // Returns the replication lag in seconds, or -1 when replication is stopped or not configured
+    private long queryLagSeconds(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.setQueryTimeout(validationTimeoutSeconds);
+            ResultSet resultSet = statement.executeQuery(lagQuery);
+            if (!resultSet.next()) {
+                return -1;
+            }
+            Object lag = readLagColumn(resultSet);
+            if (lag instanceof Number number) {
+                return number.longValue();
+            }
+            return lag != null && lag.toString().matches("\\d+") ? Long.parseLong(lag.toString()) : -1;
+        }
+    }
+
+    private static Object readLagColumn(ResultSet resultSet) throws SQLException {
+        for (String column : List.of("Seconds_Behind_Source", "Seconds_Behind_Master")) {
+            try {
+                return resultSet.getObject(column);
+            } catch (SQLException ignored) {
+                // Column name depends on the MySQL version; try the next one
+            }
+        }
+        return resultSet.getObject(1);
+    }
+
+    public boolean hasHealthyReplica() {
+        return replicas.stream().anyMatch(replica -> replica.healthy);
+    }
+
+    @Override
+    public void close() {
+        healthChecker.shutdownNow();
+        replicas.forEach(replica -> replica.dataSource.close());
+    }
+}
@@ -1,12 +1,21 @@
 package com.example.nebulashare.config;
 
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.web.servlet.MultipartProperties;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.web.multipart.MultipartResolver;
+import org.springframework.web.multipart.support.StandardServletMultipartResolver;
+import org.springframework.web.servlet.DispatcherServlet;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 @Configuration
 public class WebConfig implements WebMvcConfigurer {
 
+    public static final String STREAMING_UPLOAD_PATH = "/api/files/upload";
+
     @Override
     public void addCorsMappings(CorsRegistry registry) {
         registry.addMapping("/api/**")
@@ -15,4 +24,21 @@ public class WebConfig implements WebMvcConfigurer {
             .allowedHeaders("*")
             .allowCredentials(true);
     }
+
+    // Leaves streamed uploads unparsed, so the container never spools them to a temp file first
+    @Bean(name = DispatcherServlet.MULTIPART_RESOLVER_BEAN_NAME)
+    public MultipartResolver multipartResolver(MultipartProperties multipartProperties,
+                                               @Value("${file.upload.streaming:true}") boolean streaming) {
+        StandardServletMultipartResolver resolver = new StandardServletMultipartResolver() {
+            @Override
+            public boolean isMultipart(HttpServletRequest request) {
+                if (streaming && request.getRequestURI().equals(request.getContextPath() + STREAMING_UPLOAD_PATH)) {
+                    return false;
+                }
+                return super.isMultipart(request);
+            }
+        };
+        resolver.setResolveLazily(multipartProperties.isResolveLazily());
+        return resolver;
+    }
 }
\ No newline at end of file
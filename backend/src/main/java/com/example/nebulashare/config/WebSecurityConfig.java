@@ -1,6 +1,7 @@
 package com.example.nebulashare.config;
 
 import com.example.nebulashare.service.CustomUserDetailsService;
+import jakarta.servlet.DispatcherType;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -24,6 +25,9 @@ public class WebSecurityConfig {
     @Autowired
     private JwtRequestFilter jwtRequestFilter;
 
+    @Autowired
+    private ConcurrencyLimitFilter concurrencyLimitFilter;
+
     @Bean
     public PasswordEncoder passwordEncoder() {
         return new BCryptPasswordEncoder();
@@ -43,7 +47,9 @@ public class WebSecurityConfig {
         http.csrf().disable()
                 .cors().and()
                 .authorizeRequests()
+                .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll() // Long-poll results; the original request was already authorized
                 .requestMatchers("/api/auth/**").permitAll() // Authentication endpoints are public
+                .requestMatchers("/api/dl/**").permitAll() // Presigned downloads carry their own HMAC signature
                 .requestMatchers("/api/admin/**").hasAuthority("ADMIN") // Admin endpoints for ADMIN role only
                 .anyRequest().authenticated() // All other requests need authentication
                 .and()
@@ -51,6 +57,7 @@ public class WebSecurityConfig {
                 .sessionCreationPolicy(SessionCreationPolicy.STATELESS); // Use stateless session; session won't be used to store user's state.
 
         http.addFilterBefore(jwtRequestFilter, UsernamePasswordAuthenticationFilter.class);
+        http.addFilterBefore(concurrencyLimitFilter, JwtRequestFilter.class); // Shed load before the JWT user lookup
 
         return http.build();
     }
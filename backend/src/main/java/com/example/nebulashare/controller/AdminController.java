@@ -1,7 +1,10 @@
 package com.example.nebulashare.controller;
 
+import com.example.nebulashare.config.ConcurrencyLimitFilter;
 import com.example.nebulashare.model.FileData;
 import com.example.nebulashare.model.User;
+import com.example.nebulashare.model.UserPurgeJob;
+import com.example.nebulashare.repository.FileAccessStatsRepository;
 import com.example.nebulashare.service.AdminService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
@@ -17,6 +20,9 @@ public class AdminController {
     @Autowired
     private AdminService adminService;
 
+    @Autowired
+    private ConcurrencyLimitFilter concurrencyLimitFilter;
+
     @GetMapping("/users")
     public ResponseEntity<List<User>> getAllUsers() {
         List<User> users = adminService.findAllUsers();
@@ -26,16 +32,41 @@ public class AdminController {
     @DeleteMapping("/users/{userId}")
     public ResponseEntity<?> deleteUser(@PathVariable String userId) {
         try {
-            adminService.deleteUserById(userId);
-            return ResponseEntity.ok(Map.of("message", "User deleted successfully."));
+            UserPurgeJob job = adminService.deleteUserById(userId);
+            return ResponseEntity.accepted().body(Map.of("message", "User disabled; deletion is in progress.", "job", job));
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
         }
     }
 
+    @GetMapping("/users/{userId}/deletion")
+    public ResponseEntity<?> getUserDeletion(@PathVariable String userId) {
+        return adminService.findPurgeJob(userId)
+                .<ResponseEntity<?>>map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
     @GetMapping("/files")
     public ResponseEntity<List<FileData>> getAllFiles() {
         List<FileData> files = adminService.findAllFiles();
         return ResponseEntity.ok(files);
     }
+
+    @GetMapping("/stats/top-files")
+    public ResponseEntity<List<FileAccessStatsRepository.TopFile>> getTopFiles(@RequestParam(defaultValue = "20") int limit) {
+        return ResponseEntity.ok(adminService.findTopFiles(Math.min(limit, 500)));
+    }
+
+    @GetMapping("/stats/users")
+    public ResponseEntity<List<FileAccessStatsRepository.UserActivity>> getUserActivity(@RequestParam(defaultValue = "20") int limit) {
+        return ResponseEntity.ok(adminService.findUserActivity(Math.min(limit, 500)));
+    }
+
+    // Current adaptive limit and in-flight count of each load-shedding pool
+    @GetMapping("/stats/limits")
+    public ResponseEntity<List<Map<String, Object>>> getConcurrencyLimits() {
+        return ResponseEntity.ok(concurrencyLimitFilter.getLimiters().stream()
+                .map(limiter -> Map.<String, Object>of("pool", limiter.getName(), "limit", limiter.getLimit(), "inFlight", limiter.getInFlight()))
+                .toList());
+    }
 }
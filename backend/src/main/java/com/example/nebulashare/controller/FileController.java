@@ -1,19 +1,42 @@
 package com.example.nebulashare.controller;
 
+import com.example.nebulashare.config.ConcurrencyLimitFilter;
 import com.example.nebulashare.model.FileData;
 import com.example.nebulashare.model.User;
+import com.example.nebulashare.service.ChangeFeedService;
+import com.example.nebulashare.service.ChangeFeedService.ChangeBatch;
+import com.example.nebulashare.service.FileAccessStatsService;
 import com.example.nebulashare.service.FileStorageService;
+import com.example.nebulashare.service.PresignedUrlService;
 import com.example.nebulashare.service.UserService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.apache.commons.fileupload2.core.DiskFileItem;
+import org.apache.commons.fileupload2.core.DiskFileItemFactory;
+import org.apache.commons.fileupload2.core.FileItemInput;
+import org.apache.commons.fileupload2.core.FileItemInputIterator;
+import org.apache.commons.fileupload2.core.FileUploadSizeException;
+import org.apache.commons.fileupload2.jakarta.servlet6.JakartaServletFileUpload;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.web.servlet.MultipartProperties;
 import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.multipart.MultipartHttpServletRequest;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import org.springframework.web.util.WebUtils;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -28,17 +51,102 @@ public class FileController {
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private PresignedUrlService presignedUrlService;
+
+    @Autowired
+    private FileAccessStatsService fileAccessStatsService;
+
+    @Autowired
+    private ChangeFeedService changeFeedService;
+
+    @Autowired
+    private MultipartProperties multipartProperties;
+
+    @Value("${limiter.retry-after-seconds:1}")
+    private int retryAfterSeconds;
+
+    private static final int MAX_CHANGES_PER_PAGE = 1000;
+    private static final long MAX_WAIT_SECONDS = 60;
+
     @PostMapping("/upload")
-    public ResponseEntity<?> uploadFile(@RequestParam("file") MultipartFile file, @AuthenticationPrincipal UserDetails userDetails) {
+    public ResponseEntity<?> uploadFile(HttpServletRequest request, @AuthenticationPrincipal UserDetails userDetails) {
         try {
             User user = userService.findByEmail(userDetails.getUsername()).orElseThrow(() -> new RuntimeException("User not found"));
-            FileData fileData = fileStorageService.storeFile(file, user);
+            // Parsed by the multipart resolver only when streaming uploads are turned off
+            MultipartHttpServletRequest multipartRequest = WebUtils.getNativeRequest(request, MultipartHttpServletRequest.class);
+            FileData fileData = multipartRequest != null
+                    ? fileStorageService.storeFile(requireFilePart(multipartRequest.getFile("file")),
+                            parseFolderId(multipartRequest.getParameter("folderId")), user)
+                    : storeStreamedUpload(request, user);
             return ResponseEntity.ok(fileData);
         } catch (Exception e) {
+            // A pool or query timeout is the server's problem, not a bad upload; the client should try again
+            if (ConcurrencyLimitFilter.isOverload(e)) {
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                        .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                        .body(Map.of("message", "Server is busy, please retry shortly."));
+            }
+            // Storage wraps whatever the upload stream threw, including the limit being hit part way through
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof FileUploadSizeException) {
+                    return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE)
+                            .body(Map.of("message", "Could not upload the file: " + cause.getMessage()));
+                }
+            }
             return ResponseEntity.badRequest().body(Map.of("message", "Could not upload the file: " + e.getMessage()));
         }
     }
 
+    // Read the multipart body as it arrives and hand the file part straight to storage.
+    // An optional "folderId" field must come before the file part.
+    private FileData storeStreamedUpload(HttpServletRequest request, User user) throws IOException {
+        JakartaServletFileUpload<DiskFileItem, DiskFileItemFactory> upload = new JakartaServletFileUpload<>();
+        upload.setFileSizeMax(multipartProperties.getMaxFileSize().toBytes());
+        upload.setSizeMax(multipartProperties.getMaxRequestSize().toBytes());
+
+        Long folderId = null;
+        FileItemInputIterator items = upload.getItemIterator(request);
+        while (items.hasNext()) {
+            FileItemInput item = items.next();
+            if (item.isFormField() && "folderId".equals(item.getFieldName())) {
+                try (InputStream in = item.getInputStream()) {
+                    folderId = parseFolderId(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+                }
+            } else if (!item.isFormField() && "file".equals(item.getFieldName())) {
+                FileData fileData;
+                try (InputStream in = item.getInputStream()) {
+                    fileData = fileStorageService.storeFile(in, item.getName(), item.getContentType(), folderId, user);
+                }
+                rejectLateFolderId(items, fileData, user);
+                return fileData;
+            }
+        }
+        throw new RuntimeException("Required part 'file' is not present.");
+    }
+
+    // A folderId after the file part arrives too late to place it; undo the upload rather than file it at the top level
+    private void rejectLateFolderId(FileItemInputIterator items, FileData fileData, User user) throws IOException {
+        while (items.hasNext()) {
+            FileItemInput item = items.next();
+            if (item.isFormField() && "folderId".equals(item.getFieldName())) {
+                fileStorageService.deleteFile(fileData.getId(), user);
+                throw new RuntimeException("Field 'folderId' must come before the 'file' part.");
+            }
+        }
+    }
+
+    private Long parseFolderId(String value) {
+        return value == null || value.isBlank() ? null : Long.valueOf(value.trim());
+    }
+
+    private MultipartFile requireFilePart(MultipartFile file) {
+        if (file == null) {
+            throw new RuntimeException("Required part 'file' is not present.");
+        }
+        return file;
+    }
+
     @GetMapping("/user")
     public ResponseEntity<List<FileData>> getUserFiles(@AuthenticationPrincipal UserDetails userDetails) {
         User user = userService.findByEmail(userDetails.getUsername()).orElseThrow(() -> new RuntimeException("User not found"));
@@ -46,31 +154,91 @@ public class FileController {
         return ResponseEntity.ok(files);
     }
 
+    // Start of a sync: the files as of a cursor, then follow the feed from that cursor
+    @GetMapping("/changes/snapshot")
+    public ResponseEntity<?> getChangeSnapshot(@AuthenticationPrincipal UserDetails userDetails) {
+        User user = userService.findByEmail(userDetails.getUsername()).orElseThrow(() -> new RuntimeException("User not found"));
+        return ResponseEntity.ok(changeFeedService.getSnapshot(user));
+    }
+
+    // Cursor only, for a client that already has its files and just wants changes from now on
+    @GetMapping("/changes/cursor")
+    public ResponseEntity<?> getChangeCursor(@AuthenticationPrincipal UserDetails userDetails) {
+        User user = userService.findByEmail(userDetails.getUsername()).orElseThrow(() -> new RuntimeException("User not found"));
+        return ResponseEntity.ok(Map.of("cursor", changeFeedService.getCursor(user.getId())));
+    }
+
+    // Changes after a cursor; with wait > 0 the request is held open until something changes
+    @GetMapping("/changes")
+    public DeferredResult<ChangeBatch> getChanges(@RequestParam(value = "since", defaultValue = "0") long since,
+                                                  @RequestParam(value = "limit", defaultValue = "500") int limit,
+                                                  @RequestParam(value = "wait", defaultValue = "0") long waitSeconds,
+                                                  @AuthenticationPrincipal UserDetails userDetails) {
+        User user = userService.findByEmail(userDetails.getUsername()).orElseThrow(() -> new RuntimeException("User not found"));
+        int pageSize = Math.max(1, Math.min(limit, MAX_CHANGES_PER_PAGE));
+        long waitMillis = Math.max(0, Math.min(waitSeconds, MAX_WAIT_SECONDS)) * 1000;
+        return changeFeedService.awaitChanges(user.getId(), since, pageSize, waitMillis);
+    }
+
     @GetMapping("/download/{fileId}")
-    public ResponseEntity<Resource> downloadFile(@PathVariable String fileId, @AuthenticationPrincipal UserDetails userDetails) {
+    public ResponseEntity<Resource> downloadFile(@PathVariable String fileId,
+                                                 @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+                                                 @AuthenticationPrincipal UserDetails userDetails) {
         User user = userService.findByEmail(userDetails.getUsername()).orElseThrow(() -> new RuntimeException("User not found"));
         Optional<FileData> fileDataOptional = fileStorageService.getFile(fileId);
         if (fileDataOptional.isEmpty()) {
             return ResponseEntity.notFound().build();
         }
         FileData fileData = fileDataOptional.get();
-        Resource resource = fileStorageService.loadFileAsResource(fileId, user);
+        Resource resource = fileAccessStatsService.trackDownload(fileId, fileStorageService.loadFileAsResource(fileId, user), range);
         return ResponseEntity.ok()
                 .contentType(MediaType.parseMediaType(fileData.getFileType()))
                 .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileData.getFileName() + "\"")
                 .body(resource);
     }
 
+    @PostMapping("/presign/{fileId}")
+    public ResponseEntity<?> createPresignedUrl(@PathVariable String fileId,
+                                                @RequestParam(value = "ttl", required = false) Long ttlSeconds,
+                                                @AuthenticationPrincipal UserDetails userDetails) {
+        try {
+            User user = userService.findByEmail(userDetails.getUsername()).orElseThrow(() -> new RuntimeException("User not found"));
+            FileData fileData = fileStorageService.getOwnedFile(fileId, user);
+            Instant expiresAt = presignedUrlService.expiryFor(ttlSeconds);
+            String url = ServletUriComponentsBuilder.fromCurrentContextPath()
+                    .path("/api/dl/{token}")
+                    .buildAndExpand(presignedUrlService.createToken(fileData, expiresAt))
+                    .toUriString();
+            return ResponseEntity.ok(Map.of("url", url, "expiresAt", expiresAt.toString()));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
+        }
+    }
+
     @PostMapping("/share/{fileId}")
-    public ResponseEntity<?> createShareableLink(@PathVariable String fileId, @RequestBody Map<String, String> payload) {
+    public ResponseEntity<?> createShareableLink(@PathVariable String fileId, @RequestBody Map<String, String> payload,
+                                                 @AuthenticationPrincipal UserDetails userDetails) {
         try {
-            String link = fileStorageService.createShareableLink(fileId, payload.get("type"));
+            User user = userService.findByEmail(userDetails.getUsername()).orElseThrow(() -> new RuntimeException("User not found"));
+            String link = fileStorageService.createShareableLink(fileId, payload.get("type"), payload.get("recipient"), user);
             return ResponseEntity.ok(Map.of("link", link));
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
         }
     }
 
+    // Move a file into a folder; a missing or null folderId moves it to the top level
+    @PutMapping("/{fileId}/folder")
+    public ResponseEntity<?> moveFile(@PathVariable String fileId, @RequestBody Map<String, Long> payload,
+                                      @AuthenticationPrincipal UserDetails userDetails) {
+        try {
+            User user = userService.findByEmail(userDetails.getUsername()).orElseThrow(() -> new RuntimeException("User not found"));
+            return ResponseEntity.ok(fileStorageService.moveFile(fileId, payload.get("folderId"), user));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
+        }
+    }
+
     @DeleteMapping("/{fileId}")
     public ResponseEntity<?> deleteFile(@PathVariable String fileId, @AuthenticationPrincipal UserDetails userDetails) {
         try {
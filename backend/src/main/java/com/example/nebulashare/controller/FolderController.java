@@ -0,0 +1,92 @@
+package com.example.nebulashare.controller;
+
+import com.example.nebulashare.model.Folder;
+import com.example.nebulashare.model.User;
+import com.example.nebulashare.service.FolderService;
+import com.example.nebulashare.service.FolderService.FolderListing;
+import com.example.nebulashare.service.UserService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/folders")
+public class FolderController {
+
+    @Autowired
+    private FolderService folderService;
+
+    @Autowired
+    private UserService userService;
+
+    @PostMapping
+    public ResponseEntity<?> createFolder(@RequestBody Map<String, Object> payload, @AuthenticationPrincipal UserDetails userDetails) {
+        try {
+            User user = userService.findByEmail(userDetails.getUsername()).orElseThrow(() -> new RuntimeException("User not found"));
+            Folder folder = folderService.createFolder((String) payload.get("name"), toId(payload.get("parentId")), user);
+            return ResponseEntity.ok(folder);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
+        }
+    }
+
+    // Top-level folders and files
+    @GetMapping
+    public ResponseEntity<?> listRoot(@AuthenticationPrincipal UserDetails userDetails) {
+        User user = userService.findByEmail(userDetails.getUsername()).orElseThrow(() -> new RuntimeException("User not found"));
+        return ResponseEntity.ok(folderService.listFolder(null, user));
+    }
+
+    @GetMapping("/{folderId}")
+    public ResponseEntity<?> listFolder(@PathVariable Long folderId, @AuthenticationPrincipal UserDetails userDetails) {
+        try {
+            User user = userService.findByEmail(userDetails.getUsername()).orElseThrow(() -> new RuntimeException("User not found"));
+            FolderListing listing = folderService.listFolder(folderId, user);
+            return ResponseEntity.ok(listing);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
+        }
+    }
+
+    // Every folder and file below a folder
+    @GetMapping("/{folderId}/tree")
+    public ResponseEntity<?> listSubtree(@PathVariable Long folderId, @AuthenticationPrincipal UserDetails userDetails) {
+        try {
+            User user = userService.findByEmail(userDetails.getUsername()).orElseThrow(() -> new RuntimeException("User not found"));
+            return ResponseEntity.ok(folderService.listSubtree(folderId, user));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
+        }
+    }
+
+    // Move a folder; a missing or null parentId moves it to the top level
+    @PutMapping("/{folderId}/parent")
+    public ResponseEntity<?> moveFolder(@PathVariable Long folderId, @RequestBody Map<String, Object> payload,
+                                        @AuthenticationPrincipal UserDetails userDetails) {
+        try {
+            User user = userService.findByEmail(userDetails.getUsername()).orElseThrow(() -> new RuntimeException("User not found"));
+            return ResponseEntity.ok(folderService.moveFolder(folderId, toId(payload.get("parentId")), user));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
+        }
+    }
+
+    @DeleteMapping("/{folderId}")
+    public ResponseEntity<?> deleteFolder(@PathVariable Long folderId, @AuthenticationPrincipal UserDetails userDetails) {
+        try {
+            User user = userService.findByEmail(userDetails.getUsername()).orElseThrow(() -> new RuntimeException("User not found"));
+            int deletedFiles = folderService.deleteFolder(folderId, user);
+            return ResponseEntity.ok(Map.of("message", "Folder deleted successfully.", "deletedFiles", deletedFiles));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
+        }
+    }
+
+    private Long toId(Object value) {
+        return value == null ? null : Long.valueOf(value.toString());
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.nebulashare.controller;
+
+import com.example.nebulashare.exception.FileStorageException;
+import com.example.nebulashare.service.FileAccessStatsService;
+import com.example.nebulashare.service.FileStorageService;
+import com.example.nebulashare.service.PresignedUrlService;
+import com.example.nebulashare.service.PresignedUrlService.PresignedFile;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.Resource;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+@RestController
+@RequestMapping("/api/dl")
+public class PresignedDownloadController {
+
+    @Autowired
+    private PresignedUrlService presignedUrlService;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private FileAccessStatsService fileAccessStatsService;
+
+    // Everything needed is in the signed token, so this route never hits the database
+    @GetMapping("/{token}")
+    public ResponseEntity<Resource> download(@PathVariable String token,
+                                             @RequestHeader(value = HttpHeaders.RANGE, required = false) String range) {
+        Optional<PresignedFile> presignedFile = presignedUrlService.verifyToken(token);
+        if (presignedFile.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+
+        PresignedFile file = presignedFile.get();
+        try {
+            Resource resource = fileAccessStatsService.trackDownload(file.fileId(),
+                    fileStorageService.loadStoredFileAsResource(file.storagePath(), file.encrypted()), range);
+            return ResponseEntity.ok()
+                    .contentType(MediaType.parseMediaType(file.fileType()))
+                    .contentLength(file.fileSize())
+                    .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                            .filename(file.fileName(), StandardCharsets.UTF_8).build().toString())
+                    .header(HttpHeaders.CACHE_CONTROL, "private, max-age=0")
+                    .body(resource);
+        } catch (FileStorageException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+}
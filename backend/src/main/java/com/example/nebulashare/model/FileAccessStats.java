@@ -0,0 +1,23 @@
+package com.example.nebulashare.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "file_access_stats")
+@Data
+public class FileAccessStats {
+
+    @Id
+    private String fileId;
+
+    @Column(nullable = false)
+    private long downloadCount;
+
+    @Column(nullable = false)
+    private long bytesServed;
+
+    private LocalDateTime lastAccessedAt;
+}
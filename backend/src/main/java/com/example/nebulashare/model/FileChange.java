@@ -0,0 +1,48 @@
+package com.example.nebulashare.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.persistence.*;
+import lombok.Data;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "file_changes")
+@Data
+public class FileChange {
+
+    @JsonIgnore
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @JsonIgnore
+    @Column(nullable = false)
+    private Long userId;
+
+    // Position in the owner's change feed; strictly increasing per user
+    @Column(nullable = false)
+    private long seq;
+
+    @Column(nullable = false)
+    private String fileId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private ChangeType changeType;
+
+    private String fileName;
+
+    private Long folderId;
+
+    private String fileType;
+
+    private Long fileSize;
+
+    @CreationTimestamp
+    @Column(updatable = false)
+    private LocalDateTime createdAt;
+
+    public enum ChangeType { CREATED, UPDATED, DELETED }
+}
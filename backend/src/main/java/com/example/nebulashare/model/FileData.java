@@ -27,6 +27,9 @@ public class FileData {
     @Column(nullable = false, length = 1024)
     private String filePath;
 
+    // Null for files at the top level
+    private Long folderId;
+
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "user_id", nullable = false)
     private User user;
@@ -42,6 +45,13 @@ public class FileData {
 
     private LocalDateTime linkExpiresAt;
 
+    @Column(nullable = false)
+    private boolean encrypted;
+
+    // Hex SHA-256 of the plaintext content, computed while the upload streams in
+    @Column(length = 64)
+    private String checksum;
+
     public enum LinkType { PERMANENT, ONE_TIME }
 
     public String getStoragePath() {
@@ -0,0 +1,56 @@
+package com.example.nebulashare.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.persistence.*;
+import lombok.Data;
+import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.DynamicUpdate;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+@Entity
+@Table(name = "folders")
+@Data
+@DynamicUpdate // Rollups are maintained by bulk updates; saving a folder must not write back a stale copy
+public class Folder {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @JsonIgnore
+    @Column(nullable = false)
+    private Long userId;
+
+    // Null for folders at the top level
+    private Long parentId;
+
+    @Column(nullable = false)
+    private String name;
+
+    // Ids from the top level down to this folder, e.g. "/3/17/42/"
+    @Column(nullable = false, length = 760)
+    private String path;
+
+    // Bytes and files in this folder and everything below it
+    @Column(nullable = false)
+    private long totalSize;
+
+    @Column(nullable = false)
+    private long fileCount;
+
+    @CreationTimestamp
+    @Column(updatable = false)
+    private LocalDateTime createdAt;
+
+    // This folder and all its ancestors, read straight off the path
+    @JsonIgnore
+    public List<Long> getPathIds() {
+        return Arrays.stream(path.split("/"))
+                .filter(segment -> !segment.isEmpty())
+                .map(Long::valueOf)
+                .toList();
+    }
+}
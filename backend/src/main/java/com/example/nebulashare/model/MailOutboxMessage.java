@@ -0,0 +1,54 @@
+package com.example.nebulashare.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "mail_outbox")
+@Data
+public class MailOutboxMessage {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private String recipient;
+
+    @Column(nullable = false)
+    private String subject;
+
+    @Column(nullable = false, columnDefinition = "TEXT")
+    private String body;
+
+    // Messages with the same key replace each other while still pending
+    private String coalesceKey;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private Status status;
+
+    @Column(nullable = false)
+    private int attempts;
+
+    @Column(nullable = false)
+    private LocalDateTime nextAttemptAt;
+
+    @CreationTimestamp
+    @Column(updatable = false)
+    private LocalDateTime createdAt;
+
+    private LocalDateTime sentAt;
+
+    @Column(length = 1024)
+    private String lastError;
+
+    // Dispatcher claim currently sending the message; next_attempt_at is when its lease runs out
+    @Column(length = 64)
+    private String leaseOwner;
+
+    public enum Status { PENDING, SENT, FAILED }
+}
@@ -30,6 +30,10 @@ public class User {
     @Column(nullable = false)
     private String role = "USER";
 
+    // Disabled accounts cannot log in; set while the account is being purged
+    @Column(nullable = false)
+    private boolean enabled = true;
+
     @CreationTimestamp
     @Column(name = "created_at", updatable = false)
     private LocalDateTime createdAt;
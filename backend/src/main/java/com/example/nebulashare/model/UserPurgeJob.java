@@ -0,0 +1,45 @@
+package com.example.nebulashare.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "user_purge_jobs")
+@Data
+public class UserPurgeJob {
+
+    @Id
+    private Long userId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private Status status;
+
+    @Column(nullable = false)
+    private long totalFiles;
+
+    @Column(nullable = false)
+    private long deletedFiles;
+
+    @CreationTimestamp
+    @Column(updatable = false)
+    private LocalDateTime startedAt;
+
+    private LocalDateTime updatedAt;
+
+    private LocalDateTime finishedAt;
+
+    @Column(length = 1024)
+    private String lastError;
+
+    // Node currently working on the job, and until when; another node may take over once the lease runs out
+    @Column(length = 64)
+    private String leaseOwner;
+
+    private LocalDateTime leaseUntil;
+
+    public enum Status { RUNNING, COMPLETED, FAILED }
+}
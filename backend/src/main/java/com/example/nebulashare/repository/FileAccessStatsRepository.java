@@ -0,0 +1,64 @@
+package com.example.nebulashare.repository;
+
+import com.example.nebulashare.model.FileAccessStats;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface FileAccessStatsRepository extends JpaRepository<FileAccessStats, String> {
+
+    /**
+     * Download statistics of a single file, with its name and owner.
+     */
+    interface TopFile {
+        String getFileId();
+        String getFileName();
+        Long getOwnerId();
+        String getOwner();
+        long getDownloadCount();
+        long getBytesServed();
+        LocalDateTime getLastAccessedAt();
+    }
+
+    /**
+     * Download statistics summed over all files owned by a user.
+     */
+    interface UserActivity {
+        Long getUserId();
+        String getUsername();
+        long getFiles();
+        long getDownloadCount();
+        long getBytesServed();
+        LocalDateTime getLastAccessedAt();
+    }
+
+    /**
+     * Finds the most downloaded files that still exist.
+     *
+     * @param pageable Limits the number of files returned.
+     * @return Files ordered by download count, most downloaded first.
+     */
+    @Query("SELECT f.id AS fileId, f.fileName AS fileName, u.id AS ownerId, u.username AS owner, "
+            + "s.downloadCount AS downloadCount, s.bytesServed AS bytesServed, s.lastAccessedAt AS lastAccessedAt "
+            + "FROM FileAccessStats s JOIN FileData f ON f.id = s.fileId JOIN f.user u "
+            + "ORDER BY s.downloadCount DESC")
+    List<TopFile> findTopFiles(Pageable pageable);
+
+    /**
+     * Sums download statistics per file owner.
+     *
+     * @param pageable Limits the number of users returned.
+     * @return Users ordered by total downloads of their files, most active first.
+     */
+    @Query("SELECT u.id AS userId, u.username AS username, COUNT(f) AS files, "
+            + "SUM(s.downloadCount) AS downloadCount, SUM(s.bytesServed) AS bytesServed, MAX(s.lastAccessedAt) AS lastAccessedAt "
+            + "FROM FileAccessStats s JOIN FileData f ON f.id = s.fileId JOIN f.user u "
+            + "GROUP BY u.id, u.username "
+            + "ORDER BY SUM(s.downloadCount) DESC")
+    List<UserActivity> findUserActivity(Pageable pageable);
+}
@@ -0,0 +1,22 @@
+package com.example.nebulashare.repository;
+
+import com.example.nebulashare.model.FileChange;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface FileChangeRepository extends JpaRepository<FileChange, Long> {
+
+    /**
+     * Finds a user's changes after a cursor, oldest first.
+     *
+     * @param userId The owner of the changes.
+     * @param seq The last sequence number the client has seen.
+     * @param pageable Limits the number of changes returned.
+     * @return The changes with a sequence number greater than {@code seq}.
+     */
+    List<FileChange> findByUserIdAndSeqGreaterThanOrderBySeqAsc(Long userId, long seq, Pageable pageable);
+}
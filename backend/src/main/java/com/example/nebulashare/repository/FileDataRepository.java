@@ -2,7 +2,10 @@ package com.example.nebulashare.repository;
 
 import com.example.nebulashare.model.FileData;
 import com.example.nebulashare.model.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -29,4 +32,44 @@ public interface FileDataRepository extends JpaRepository<FileData, String> {
      * @return An Optional containing the file if found and owned by the user.
      */
     Optional<FileData> findByIdAndUser(String id, User user);
+
+    /**
+     * Counts the files owned by a user.
+     *
+     * @param user The owner of the files.
+     * @return The number of files.
+     */
+    long countByUser(User user);
+
+    /**
+     * Finds the files directly inside a folder, or at the top level when {@code folderId} is null.
+     *
+     * @param user The owner of the files.
+     * @param folderId The folder to list, or null.
+     * @return A list of FileData objects in that folder.
+     */
+    List<FileData> findByUserAndFolderId(User user, Long folderId);
+
+    /**
+     * Finds every file in a folder and all of its subfolders.
+     *
+     * @param user The owner of the files.
+     * @param path The path of the subtree root.
+     * @return A list of FileData objects anywhere below the folder.
+     */
+    @Query("SELECT f FROM FileData f WHERE f.user = :user AND f.folderId IN "
+            + "(SELECT d.id FROM Folder d WHERE d.userId = :#{#user.id} AND d.path LIKE CONCAT(:path, '%'))")
+    List<FileData> findBySubtree(@Param("user") User user, @Param("path") String path);
+
+    /**
+     * Finds files in a folder and all of its subfolders, a page at a time.
+     *
+     * @param user The owner of the files.
+     * @param path The path of the subtree root.
+     * @param pageable How many files to return.
+     * @return A list of FileData objects anywhere below the folder.
+     */
+    @Query("SELECT f FROM FileData f WHERE f.user = :user AND f.folderId IN "
+            + "(SELECT d.id FROM Folder d WHERE d.userId = :#{#user.id} AND d.path LIKE CONCAT(:path, '%'))")
+    List<FileData> findBySubtree(@Param("user") User user, @Param("path") String path, Pageable pageable);
 }
\ No newline at end of file
@@ -0,0 +1,109 @@
+package com.example.nebulashare.repository;
+
+import com.example.nebulashare.model.Folder;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface FolderRepository extends JpaRepository<Folder, Long> {
+
+    /**
+     * Finds a folder by its ID and owner.
+     *
+     * @param id The ID of the folder.
+     * @param userId The owner of the folder.
+     * @return An Optional containing the folder if found and owned by the user.
+     */
+    Optional<Folder> findByIdAndUserId(Long id, Long userId);
+
+    /**
+     * Finds a folder by its ID and owner with a locking read, which always sees the latest committed path and rollups.
+     *
+     * @param id The ID of the folder.
+     * @param userId The owner of the folder.
+     * @return An Optional containing the folder if found and owned by the user.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    Optional<Folder> findWithLockByIdAndUserId(Long id, Long userId);
+
+    /**
+     * Serializes changes to one user's folder tree by locking their row in {@code users}.
+     * The change feed bumps the same row, so this adds no new point of contention.
+     *
+     * @param userId The owner of the tree.
+     * @return The user's ID.
+     */
+    @Query(value = "SELECT id FROM users WHERE id = :userId FOR UPDATE", nativeQuery = true)
+    Long lockTree(@Param("userId") Long userId);
+
+    /**
+     * Finds the direct children of a folder, or the top-level folders when {@code parentId} is null.
+     *
+     * @param userId The owner of the folders.
+     * @param parentId The parent folder, or null.
+     * @return The child folders ordered by name.
+     */
+    List<Folder> findByUserIdAndParentIdOrderByName(Long userId, Long parentId);
+
+    /**
+     * Checks whether a folder already has a child with the given name.
+     *
+     * @param userId The owner of the folders.
+     * @param parentId The parent folder, or null for the top level.
+     * @param name The name to look for.
+     * @return Whether such a folder exists.
+     */
+    boolean existsByUserIdAndParentIdAndName(Long userId, Long parentId, String name);
+
+    /**
+     * Finds a folder and everything below it with one range scan over the path index.
+     *
+     * @param userId The owner of the folders.
+     * @param path The path of the subtree root.
+     * @return The folders of the subtree, parents before children.
+     */
+    List<Folder> findByUserIdAndPathStartingWithOrderByPath(Long userId, String path);
+
+    /**
+     * Adds to the size and file count rollups of the given folders.
+     *
+     * @param ids The folders to update, normally a folder and its ancestors.
+     * @param size The number of bytes to add; negative to subtract.
+     * @param count The number of files to add; negative to subtract.
+     */
+    @Modifying(flushAutomatically = true)
+    @Query("UPDATE Folder f SET f.totalSize = f.totalSize + :size, f.fileCount = f.fileCount + :count WHERE f.id IN :ids")
+    void addToRollups(@Param("ids") Collection<Long> ids, @Param("size") long size, @Param("count") long count);
+
+    /**
+     * Finds the longest path in a subtree, to check that moving it keeps every path within the column size.
+     *
+     * @param userId The owner of the folders.
+     * @param path The path of the subtree root.
+     * @return The length of the longest path.
+     */
+    @Query("SELECT MAX(LENGTH(f.path)) FROM Folder f WHERE f.userId = :userId AND f.path LIKE CONCAT(:path, '%')")
+    int findMaxPathLength(@Param("userId") Long userId, @Param("path") String path);
+
+    /**
+     * Rewrites the path prefix of a subtree after it moved.
+     *
+     * @param userId The owner of the folders.
+     * @param oldPath The subtree root's path before the move.
+     * @param newPath The subtree root's path after the move.
+     * @return The number of folders moved.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Folder f SET f.path = CONCAT(:newPath, SUBSTRING(f.path, LENGTH(:oldPath) + 1)) "
+            + "WHERE f.userId = :userId AND f.path LIKE CONCAT(:oldPath, '%')")
+    int movePaths(@Param("userId") Long userId, @Param("oldPath") String oldPath, @Param("newPath") String newPath);
+}
@@ -0,0 +1,26 @@
+package com.example.nebulashare.repository;
+
+import com.example.nebulashare.model.MailOutboxMessage;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+@Repository
+public interface MailOutboxRepository extends JpaRepository<MailOutboxMessage, Long> {
+
+    /**
+     * Finds a queued message that a new one with the same key should replace.
+     *
+     * A message due later is either leased by a dispatcher mid-send or backing off after a failure, and
+     * is left alone.
+     *
+     * @param coalesceKey The key identifying the notification.
+     * @param status The message status, normally {@code PENDING}.
+     * @param now Messages due at or before this time are candidates.
+     * @return The matching message, if any.
+     */
+    Optional<MailOutboxMessage> findFirstByCoalesceKeyAndStatusAndNextAttemptAtLessThanEqual(
+            String coalesceKey, MailOutboxMessage.Status status, LocalDateTime now);
+}
@@ -0,0 +1,19 @@
+package com.example.nebulashare.repository;
+
+import com.example.nebulashare.model.UserPurgeJob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface UserPurgeJobRepository extends JpaRepository<UserPurgeJob, Long> {
+
+    /**
+     * Finds purge jobs in the given state, e.g. the ones to resume after a restart.
+     *
+     * @param status The job status to look for.
+     * @return A list of matching jobs.
+     */
+    List<UserPurgeJob> findByStatus(UserPurgeJob.Status status);
+}
@@ -2,14 +2,19 @@ package com.example.nebulashare.service;
 
 import com.example.nebulashare.model.FileData;
 import com.example.nebulashare.model.User;
+import com.example.nebulashare.model.UserPurgeJob;
+import com.example.nebulashare.repository.FileAccessStatsRepository;
 import com.example.nebulashare.repository.FileDataRepository;
 import com.example.nebulashare.repository.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
+import java.util.Optional;
 
 @Service
 public class AdminService {
@@ -20,18 +25,39 @@ public class AdminService {
     @Autowired
     private FileDataRepository fileDataRepository;
 
+    @Autowired
+    private FileAccessStatsRepository fileAccessStatsRepository;
+
+    @Autowired
+    private UserPurgeService userPurgeService;
+
     // Get all users
+    @Transactional(readOnly = true)
     public List<User> findAllUsers() {
         return userRepository.findAll();
     }
 
     // Get all files
+    @Transactional(readOnly = true)
     public List<FileData> findAllFiles() {
         return fileDataRepository.findAll();
     }
 
-    // Delete user by Long id
-    public void deleteUser(Long userId) {
+    // Get the most downloaded files
+    @Transactional(readOnly = true)
+    public List<FileAccessStatsRepository.TopFile> findTopFiles(int limit) {
+        return fileAccessStatsRepository.findTopFiles(PageRequest.of(0, limit));
+    }
+
+    // Get download totals per file owner
+    @Transactional(readOnly = true)
+    public List<FileAccessStatsRepository.UserActivity> findUserActivity(int limit) {
+        return fileAccessStatsRepository.findUserActivity(PageRequest.of(0, limit));
+    }
+
+    // Delete user by Long id: disables the account now and purges its files in the background
+    @Transactional
+    public UserPurgeJob deleteUser(Long userId) {
         UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
         User currentUser = userRepository.findByEmail(userDetails.getUsername())
                 .orElseThrow(() -> new RuntimeException("Authenticated user not found."));
@@ -40,15 +66,19 @@ public class AdminService {
             throw new RuntimeException("Admins cannot delete their own account.");
         }
 
-        if (!userRepository.existsById(userId)) {
-            throw new RuntimeException("User not found with id: " + userId);
-        }
+        User user = userRepository.findById(userId)
+                .orElseThrow(() -> new RuntimeException("User not found with id: " + userId));
 
-        userRepository.deleteById(userId);
+        return userPurgeService.startPurge(user);
     }
 
     // Delete user by String id (for controller)
-    public void deleteUserById(String userId) {
-        deleteUser(Long.parseLong(userId));
+    public UserPurgeJob deleteUserById(String userId) {
+        return deleteUser(Long.parseLong(userId));
+    }
+
+    // Get the progress of a user deletion
+    public Optional<UserPurgeJob> findPurgeJob(String userId) {
+        return userPurgeService.getJob(Long.parseLong(userId));
     }
 }
@@ -0,0 +1,284 @@
+package com.example.nebulashare.service;
+
+import com.example.nebulashare.model.FileChange;
+import com.example.nebulashare.model.FileData;
+import com.example.nebulashare.model.User;
+import com.example.nebulashare.repository.FileChangeRepository;
+import com.example.nebulashare.repository.FileDataRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a per-user, strictly increasing log of file changes so clients can sync incrementally.
+ *
+ * Sequence numbers come from {@code users.change_seq}, bumped in the same transaction as the change
+ * itself; the row lock orders concurrent writers, so a client that has seen sequence {@code n} has
+ * seen every change up to {@code n}. Long-polling clients are parked as {@link DeferredResult}s and
+ * woken after the writing transaction commits. Changes committed by another instance are noticed by a
+ * poller that compares the parked users' {@code change_seq} with what their clients have seen, so with
+ * several instances a waiter wakes within one poll interval rather than sleeping out its whole wait.
+ */
+@Service
+public class ChangeFeedService {
+
+    private static final Logger log = LoggerFactory.getLogger(ChangeFeedService.class);
+
+    private static final int POLL_BATCH_SIZE = 500;
+
+    private static final String INSERT_SQL = "INSERT INTO file_changes "
+            + "(user_id, seq, file_id, change_type, file_name, file_type, file_size, folder_id, created_at) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    @Autowired
+    private FileChangeRepository fileChangeRepository;
+
+    @Autowired
+    private FileDataRepository fileDataRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${changes.poll-interval-ms:1000}")
+    private long pollIntervalMillis;
+
+    private final Map<Long, Set<Waiter>> waiters = new ConcurrentHashMap<>();
+
+    // Wake-ups re-query the feed, which must not run on the committing request thread
+    private final ExecutorService notifier = Executors.newFixedThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "change-feed-notifier");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "change-feed-poller");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * A page of the change feed.
+     *
+     * @param changes The changes after the requested cursor, oldest first.
+     * @param cursor The cursor to send on the next request.
+     * @param hasMore Whether more changes are available right away.
+     */
+    public record ChangeBatch(List<FileChange> changes, long cursor, boolean hasMore) {
+    }
+
+    /**
+     * Starting point for a client syncing from scratch.
+     *
+     * @param cursor The cursor to follow the feed from.
+     * @param files Every file as of that cursor.
+     */
+    public record Snapshot(long cursor, List<FileData> files) {
+    }
+
+    private record Waiter(long since, int limit, DeferredResult<ChangeBatch> result) {
+    }
+
+    /**
+     * Appends a change to the owner's feed as part of the caller's transaction.
+     *
+     * @param user The owner of the file.
+     * @param fileData The file that changed.
+     * @param changeType What happened to it.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void record(User user, FileData fileData, FileChange.ChangeType changeType) {
+        recordAll(user, List.of(fileData), changeType);
+    }
+
+    /**
+     * Appends the same kind of change for many files at once, taking a whole block of sequence numbers.
+     *
+     * @param user The owner of the files.
+     * @param files The files that changed.
+     * @param changeType What happened to them.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordAll(User user, List<FileData> files, FileChange.ChangeType changeType) {
+        if (files.isEmpty()) {
+            return;
+        }
+        Long userId = user.getId();
+        jdbcTemplate.update("UPDATE users SET change_seq = change_seq + ? WHERE id = ?", files.size(), userId);
+        Long lastSeq = jdbcTemplate.queryForObject("SELECT change_seq FROM users WHERE id = ?", Long.class, userId);
+
+        long firstSeq = lastSeq - files.size() + 1;
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<Object[]> rows = new ArrayList<>(files.size());
+        for (int i = 0; i < files.size(); i++) {
+            FileData fileData = files.get(i);
+            rows.add(new Object[]{userId, firstSeq + i, fileData.getId(), changeType.name(), fileData.getFileName(),
+                    fileData.getFileType(), fileData.getFileSize(), fileData.getFolderId(), now});
+        }
+        jdbcTemplate.batchUpdate(INSERT_SQL, rows);
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                wake(userId);
+            }
+        });
+    }
+
+    // Read from the primary: a lagging replica would hide changes the client was just woken up for
+    @Transactional
+    public ChangeBatch getChanges(Long userId, long since, int limit) {
+        List<FileChange> changes = fileChangeRepository.findByUserIdAndSeqGreaterThanOrderBySeqAsc(
+                userId, since, PageRequest.of(0, limit + 1));
+        boolean hasMore = changes.size() > limit;
+        if (hasMore) {
+            changes = changes.subList(0, limit);
+        }
+        long cursor = changes.isEmpty() ? since : changes.get(changes.size() - 1).getSeq();
+        return new ChangeBatch(changes, cursor, hasMore);
+    }
+
+    // The latest sequence number of a user, for a client that only wants changes from now on
+    @Transactional
+    public long getCursor(Long userId) {
+        Long seq = jdbcTemplate.queryForObject("SELECT change_seq FROM users WHERE id = ?", Long.class, userId);
+        return seq == null ? 0 : seq;
+    }
+
+    /**
+     * Reads the cursor and the file listing in one primary transaction, so the listing holds exactly the
+     * changes up to the cursor. Listing from a replica instead could miss files the cursor already covers.
+     *
+     * @param user The owner of the feed.
+     * @return The cursor and the files as of that cursor.
+     */
+    @Transactional
+    public Snapshot getSnapshot(User user) {
+        long cursor = getCursor(user.getId());
+        return new Snapshot(cursor, fileDataRepository.findByUser(user));
+    }
+
+    /**
+     * Returns the changes after a cursor, waiting up to {@code waitMillis} for one to happen if there are none yet.
+     *
+     * @param userId The owner of the feed.
+     * @param since The last sequence number the client has seen.
+     * @param limit The maximum number of changes to return.
+     * @param waitMillis How long to wait for a change; 0 answers right away.
+     * @return A result completed with the changes, or with an empty batch once the wait runs out.
+     */
+    public DeferredResult<ChangeBatch> awaitChanges(Long userId, long since, int limit, long waitMillis) {
+        if (waitMillis <= 0) {
+            DeferredResult<ChangeBatch> result = new DeferredResult<>();
+            result.setResult(fetch(userId, since, limit));
+            return result;
+        }
+
+        DeferredResult<ChangeBatch> result = new DeferredResult<>(waitMillis, () -> new ChangeBatch(List.of(), since, false));
+        Waiter waiter = new Waiter(since, limit, result);
+        // Register before querying so a commit in between still wakes us
+        waiters.computeIfAbsent(userId, id -> ConcurrentHashMap.newKeySet()).add(waiter);
+        result.onCompletion(() -> removeWaiter(userId, waiter));
+
+        ChangeBatch batch = fetch(userId, since, limit);
+        if (batch != null && !batch.changes().isEmpty()) {
+            result.setResult(batch);
+        }
+        return result;
+    }
+
+    @PostConstruct
+    public void startPolling() {
+        poller.scheduleWithFixedDelay(this::pollSafely, pollIntervalMillis, pollIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        poller.shutdownNow();
+        notifier.shutdownNow();
+    }
+
+    // Wake parked clients whose user has moved past what they have seen, whichever instance committed the change
+    void pollSafely() {
+        try {
+            List<Long> userIds = List.copyOf(waiters.keySet());
+            for (int from = 0; from < userIds.size(); from += POLL_BATCH_SIZE) {
+                List<Long> chunk = userIds.subList(from, Math.min(from + POLL_BATCH_SIZE, userIds.size()));
+                String placeholders = String.join(", ", Collections.nCopies(chunk.size(), "?"));
+                jdbcTemplate.query("SELECT id, change_seq FROM users WHERE id IN (" + placeholders + ")", rs -> {
+                    long userId = rs.getLong("id");
+                    long seq = rs.getLong("change_seq");
+                    Set<Waiter> parked = waiters.get(userId);
+                    if (parked != null && parked.stream().anyMatch(waiter -> waiter.since() < seq)) {
+                        wake(userId);
+                    }
+                }, chunk.toArray());
+            }
+        } catch (RuntimeException e) {
+            log.warn("Could not poll the change feed", e);
+        }
+    }
+
+    private void wake(Long userId) {
+        Set<Waiter> parked = waiters.get(userId);
+        if (parked == null || parked.isEmpty()) {
+            return;
+        }
+        notifier.submit(() -> {
+            for (Waiter waiter : parked) {
+                if (waiter.result().isSetOrExpired()) {
+                    continue;
+                }
+                try {
+                    ChangeBatch batch = fetch(userId, waiter.since(), waiter.limit());
+                    if (batch != null && !batch.changes().isEmpty()) {
+                        waiter.result().setResult(batch);
+                    }
+                } catch (RuntimeException e) {
+                    log.warn("Could not deliver changes to a waiting client of user {}", userId, e);
+                    waiter.result().setErrorResult(e);
+                }
+            }
+        });
+    }
+
+    // Self-invocation skips the proxy, so open the read-write (primary) transaction explicitly
+    private ChangeBatch fetch(Long userId, long since, int limit) {
+        return transactionTemplate.execute(status -> getChanges(userId, since, limit));
+    }
+
+    private void removeWaiter(Long userId, Waiter waiter) {
+        waiters.computeIfPresent(userId, (id, parked) -> {
+            parked.remove(waiter);
+            return parked.isEmpty() ? null : parked;
+        });
+    }
+}
@@ -0,0 +1,264 @@
+package com.example.nebulashare.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpRange;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts downloads in memory and writes them to {@code file_access_stats} in periodic batches.
+ * The download path only bumps in-memory counters, so a popular file never turns into a hot row lock.
+ * A flush writes a file's counts only while the file still exists, so statistics dropped together with a
+ * deleted file are never written back by a flush that raced the delete.
+ */
+@Service
+public class FileAccessStatsService {
+
+    private static final Logger log = LoggerFactory.getLogger(FileAccessStatsService.class);
+
+    // Selecting from files skips deleted files; in MySQL the read locks the files row, so it waits for a delete in progress
+    private static final String UPSERT_SQL = "INSERT INTO file_access_stats (file_id, download_count, bytes_served, last_accessed_at) "
+            + "SELECT id, ?, ?, ? FROM files WHERE id = ? "
+            + "ON DUPLICATE KEY UPDATE download_count = download_count + VALUES(download_count), "
+            + "bytes_served = bytes_served + VALUES(bytes_served), "
+            + "last_accessed_at = GREATEST(last_accessed_at, VALUES(last_accessed_at))";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${file.stats.flush-batch-size:500}")
+    private int batchSize;
+
+    @Value("${file.stats.idle-eviction-ms:600000}")
+    private long idleEvictionMillis;
+
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    /**
+     * Running totals for one file. The adders only ever grow; the flusher remembers what it has
+     * already written and sends the difference, so no increment is lost to a concurrent reset.
+     * Increments happen inside the map's compute for the file, so an idle counter is never evicted
+     * between being looked up and being incremented.
+     */
+    private static final class Counter {
+        private final LongAdder downloads = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private volatile long lastAccessMillis;
+        // Only touched by the flushing thread
+        private long flushedDownloads;
+        private long flushedBytes;
+    }
+
+    private record Delta(String fileId, long downloads, long bytes, long lastAccessMillis) {
+    }
+
+    /**
+     * Wraps a file about to be served so that its statistics reflect what the client actually received.
+     * Bytes are counted as they are streamed out, so an aborted transfer or a byte range only adds what was sent.
+     * Opening the content counts as a download unless the request asks for ranges that all start past the first
+     * byte, so resuming a download or seeking in a video does not count it again.
+     *
+     * @param fileId The file being served.
+     * @param resource Its content.
+     * @param rangeHeader The request's {@code Range} header, or null.
+     * @return A resource to put in the response body instead of {@code resource}.
+     */
+    public Resource trackDownload(String fileId, Resource resource, String rangeHeader) {
+        boolean newDownload = startsAtFirstByte(rangeHeader, resource);
+        return new AbstractResource() {
+            @Override
+            public InputStream getInputStream() throws IOException {
+                InputStream in = resource.getInputStream();
+                if (newDownload) {
+                    recordDownload(fileId);
+                }
+                return new CountingInputStream(in, fileId);
+            }
+
+            @Override
+            public long contentLength() throws IOException {
+                return resource.contentLength();
+            }
+
+            @Override
+            public boolean exists() {
+                return resource.exists();
+            }
+
+            @Override
+            public String getFilename() {
+                return resource.getFilename();
+            }
+
+            @Override
+            public String getDescription() {
+                return resource.getDescription();
+            }
+        };
+    }
+
+    // Record one download on the hot path; no database access
+    public void recordDownload(String fileId) {
+        record(fileId, 1, 0);
+    }
+
+    public void recordBytesServed(String fileId, long bytesServed) {
+        record(fileId, 0, bytesServed);
+    }
+
+    private void record(String fileId, long downloads, long bytes) {
+        long now = System.currentTimeMillis();
+        counters.compute(fileId, (id, existing) -> {
+            Counter counter = existing != null ? existing : new Counter();
+            counter.downloads.add(downloads);
+            counter.bytes.add(bytes);
+            counter.lastAccessMillis = now;
+            return counter;
+        });
+    }
+
+    // Number of files with counts held in memory
+    int trackedFiles() {
+        return counters.size();
+    }
+
+    private static boolean startsAtFirstByte(String rangeHeader, Resource resource) {
+        if (rangeHeader == null || rangeHeader.isBlank()) {
+            return true;
+        }
+        try {
+            long length = resource.contentLength();
+            return HttpRange.parseRanges(rangeHeader).stream().anyMatch(range -> range.getRangeStart(length) == 0);
+        } catch (IOException | IllegalArgumentException e) {
+            // Spring rejects a malformed or unsatisfiable range without sending content
+            return false;
+        }
+    }
+
+    // Counts bytes as the response reads them; skipped bytes (range offsets) are not counted
+    private final class CountingInputStream extends FilterInputStream {
+        private final String fileId;
+
+        private CountingInputStream(InputStream in, String fileId) {
+            super(in);
+            this.fileId = fileId;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value >= 0) {
+                recordBytesServed(fileId, 1);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                recordBytesServed(fileId, read);
+            }
+            return read;
+        }
+    }
+
+    // Drop the stored statistics of a deleted file with the caller's transaction, and its pending counts once that
+    // commits; until then the file still exists and a flush may legitimately write to its row
+    @Transactional
+    public void forget(String fileId) {
+        forgetAll(List.of(fileId));
+    }
+
+    // Same as forget, for many files at once
+    @Transactional
+    public void forgetAll(Collection<String> fileIds) {
+        if (fileIds.isEmpty()) {
+            return;
+        }
+        List<String> forgotten = List.copyOf(fileIds);
+        jdbcTemplate.batchUpdate("DELETE FROM file_access_stats WHERE file_id = ?", forgotten, batchSize,
+                (statement, fileId) -> statement.setString(1, fileId));
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                forgotten.forEach(counters::remove);
+            }
+        });
+    }
+
+    // Synchronized only against other flushes, which share the flushed totals
+    @Scheduled(fixedDelayString = "${file.stats.flush-interval-ms:10000}")
+    public synchronized void flush() {
+        long now = System.currentTimeMillis();
+        List<Delta> deltas = new ArrayList<>();
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            Counter counter = entry.getValue();
+            long downloads = counter.downloads.sum();
+            long bytes = counter.bytes.sum();
+            if (downloads != counter.flushedDownloads || bytes != counter.flushedBytes) {
+                deltas.add(new Delta(entry.getKey(), downloads - counter.flushedDownloads,
+                        bytes - counter.flushedBytes, counter.lastAccessMillis));
+                counter.flushedDownloads = downloads;
+                counter.flushedBytes = bytes;
+            } else if (now - counter.lastAccessMillis > idleEvictionMillis) {
+                // Re-checked under the map's lock for the key: a download recorded since the snapshot keeps it
+                counters.computeIfPresent(entry.getKey(), (id, current) -> current == counter
+                        && current.downloads.sum() == current.flushedDownloads && current.bytes.sum() == current.flushedBytes
+                        ? null : current);
+            }
+        }
+        if (deltas.isEmpty()) {
+            return;
+        }
+
+        // Consistent key order keeps concurrent flushes from several nodes from deadlocking
+        deltas.sort(Comparator.comparing(Delta::fileId));
+        try {
+            jdbcTemplate.batchUpdate(UPSERT_SQL, deltas, batchSize, (statement, delta) -> {
+                statement.setLong(1, delta.downloads());
+                statement.setLong(2, delta.bytes());
+                statement.setTimestamp(3, new Timestamp(delta.lastAccessMillis()));
+                statement.setString(4, delta.fileId());
+            });
+        } catch (RuntimeException e) {
+            // Put the counts back so the next flush retries them
+            for (Delta delta : deltas) {
+                // A counter that is gone belonged to a file deleted meanwhile
+                Counter counter = counters.get(delta.fileId());
+                if (counter != null) {
+                    counter.flushedDownloads -= delta.downloads();
+                    counter.flushedBytes -= delta.bytes();
+                }
+            }
+            log.warn("Could not flush access statistics for {} files", deltas.size(), e);
+        }
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        flush();
+    }
+}
@@ -0,0 +1,436 @@
+package com.example.nebulashare.service;
+
+import com.example.nebulashare.exception.FileStorageException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Encrypts stored files as a sequence of independently authenticated AES-GCM chunks.
+ *
+ * Every file gets its own random data key, stored in the file header wrapped by the master key.
+ * Chunk {@code i} uses the nonce {@code noncePrefix || i} and carries a "final chunk" flag as associated data,
+ * so chunks cannot be reordered, swapped between files or truncated unnoticed. Because chunks decrypt on their
+ * own, a ranged download only reads and decrypts the chunks it overlaps.
+ *
+ * File layout: magic (4) | chunk size (4) | wrapped key length (2) | wrapped key | nonce prefix (8) | chunks
+ */
+@Service
+public class FileEncryptionService {
+
+    private static final byte[] MAGIC = {'N', 'S', 'E', '1'};
+    private static final String CIPHER = "AES/GCM/NoPadding";
+    private static final int TAG_BYTES = 16;
+    private static final int NONCE_BYTES = 12;
+    private static final int NONCE_PREFIX_BYTES = 8;
+    private static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    private final boolean enabled;
+    private final int chunkSize;
+    private final SecretKey masterKey;
+    private final SecureRandom random = new SecureRandom();
+
+    public FileEncryptionService(@Value("${file.encryption.enabled:false}") boolean enabled,
+                                 @Value("${file.encryption.master-key:}") String masterKey,
+                                 @Value("${file.encryption.chunk-size:65536}") int chunkSize) {
+        this.enabled = enabled;
+        this.chunkSize = chunkSize;
+        if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE) {
+            throw new IllegalStateException("file.encryption.chunk-size must be between 1 and " + MAX_CHUNK_SIZE);
+        }
+        if (enabled && !StringUtils.hasText(masterKey)) {
+            throw new IllegalStateException("file.encryption.master-key must be set when file.encryption.enabled is true");
+        }
+        this.masterKey = StringUtils.hasText(masterKey) ? decodeMasterKey(masterKey) : null;
+    }
+
+    // Fail at startup rather than on the first upload
+    private static SecretKey decodeMasterKey(String masterKey) {
+        byte[] key;
+        try {
+            key = Base64.getDecoder().decode(masterKey.trim());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("file.encryption.master-key is not valid Base64", e);
+        }
+        if (key.length != 16 && key.length != 24 && key.length != 32) {
+            throw new IllegalStateException("file.encryption.master-key must decode to 16, 24 or 32 bytes, not " + key.length);
+        }
+        return new SecretKeySpec(key, "AES");
+    }
+
+    // Whether newly stored files should be encrypted
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Wraps a destination stream so that everything written to it is encrypted in one pass.
+     * The header is written immediately; the final chunk is written on close.
+     */
+    public OutputStream encryptingStream(OutputStream target) throws IOException {
+        try {
+            KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+            keyGenerator.init(256, random);
+            SecretKey dataKey = keyGenerator.generateKey();
+            byte[] noncePrefix = new byte[NONCE_PREFIX_BYTES];
+            random.nextBytes(noncePrefix);
+
+            byte[] wrappedKey = wrapKey(dataKey);
+            ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 4 + 2 + wrappedKey.length + NONCE_PREFIX_BYTES);
+            header.put(MAGIC).putInt(chunkSize).putShort((short) wrappedKey.length).put(wrappedKey).put(noncePrefix);
+            target.write(header.array());
+
+            return new EncryptingOutputStream(target, dataKey, noncePrefix, chunkSize);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Could not set up file encryption", e);
+        }
+    }
+
+    // Encrypt a small file held in memory
+    public byte[] encrypt(byte[] plaintext) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(plaintext.length + 128);
+        try (OutputStream out = encryptingStream(bytes)) {
+            out.write(plaintext);
+        } catch (IOException e) {
+            throw new FileStorageException("Could not encrypt file", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // Decrypt a small file held in memory
+    public byte[] decrypt(byte[] ciphertext) {
+        try (InputStream in = new DecryptingInputStream(readHeader((dst, position) -> copy(ciphertext, dst, position),
+                ciphertext.length), (dst, position) -> copy(ciphertext, dst, position))) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new FileStorageException("Could not decrypt file", e);
+        }
+    }
+
+    /**
+     * Exposes an encrypted file as a Resource of its plaintext.
+     * {@link InputStream#skip(long)} on its streams seeks without decrypting, which is what Spring's
+     * range support uses to reach the start of a requested range.
+     */
+    public Resource decryptingResource(Path file) {
+        return new AbstractResource() {
+            @Override
+            public String getDescription() {
+                return "encrypted file [" + file + "]";
+            }
+
+            @Override
+            public boolean exists() {
+                return file.toFile().exists();
+            }
+
+            @Override
+            public long contentLength() throws IOException {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    return readHeader(channel::read, channel.size()).plaintextSize();
+                }
+            }
+
+            @Override
+            public InputStream getInputStream() throws IOException {
+                FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+                try {
+                    Header header = readHeader(channel::read, channel.size());
+                    return new DecryptingInputStream(header, channel::read) {
+                        @Override
+                        public void close() throws IOException {
+                            channel.close();
+                        }
+                    };
+                } catch (IOException | RuntimeException e) {
+                    channel.close();
+                    throw e;
+                }
+            }
+        };
+    }
+
+    private byte[] wrapKey(SecretKey dataKey) throws GeneralSecurityException {
+        requireMasterKey();
+        byte[] nonce = new byte[NONCE_BYTES];
+        random.nextBytes(nonce);
+        Cipher cipher = Cipher.getInstance(CIPHER);
+        cipher.init(Cipher.ENCRYPT_MODE, masterKey, new GCMParameterSpec(TAG_BYTES * 8, nonce));
+        cipher.updateAAD(MAGIC);
+        byte[] wrapped = cipher.doFinal(dataKey.getEncoded());
+        return ByteBuffer.allocate(NONCE_BYTES + wrapped.length).put(nonce).put(wrapped).array();
+    }
+
+    private SecretKey unwrapKey(byte[] wrappedKey) throws IOException {
+        requireMasterKey();
+        try {
+            Cipher cipher = Cipher.getInstance(CIPHER);
+            cipher.init(Cipher.DECRYPT_MODE, masterKey, new GCMParameterSpec(TAG_BYTES * 8, wrappedKey, 0, NONCE_BYTES));
+            cipher.updateAAD(MAGIC);
+            byte[] key = cipher.doFinal(wrappedKey, NONCE_BYTES, wrappedKey.length - NONCE_BYTES);
+            return new SecretKeySpec(key, "AES");
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Could not unwrap file key; wrong master key?", e);
+        }
+    }
+
+    private void requireMasterKey() {
+        if (masterKey == null) {
+            throw new FileStorageException("File encryption master key is not configured");
+        }
+    }
+
+    @FunctionalInterface
+    private interface PositionalReader {
+        int read(ByteBuffer dst, long position) throws IOException;
+    }
+
+    private record Header(SecretKey dataKey, byte[] noncePrefix, int chunkSize, long bodyOffset, long plaintextSize, long lastChunk) {
+    }
+
+    private Header readHeader(PositionalReader reader, long fileSize) throws IOException {
+        ByteBuffer fixed = ByteBuffer.allocate(MAGIC.length + 4 + 2);
+        readFully(reader, fixed, 0);
+        fixed.flip();
+        byte[] magic = new byte[MAGIC.length];
+        fixed.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not an encrypted file");
+        }
+        int fileChunkSize = fixed.getInt();
+        if (fileChunkSize <= 0 || fileChunkSize > MAX_CHUNK_SIZE) {
+            throw new IOException("Invalid chunk size in encrypted file header: " + fileChunkSize);
+        }
+        int wrappedKeyLength = Short.toUnsignedInt(fixed.getShort());
+
+        ByteBuffer rest = ByteBuffer.allocate(wrappedKeyLength + NONCE_PREFIX_BYTES);
+        readFully(reader, rest, fixed.capacity());
+        rest.flip();
+        byte[] wrappedKey = new byte[wrappedKeyLength];
+        rest.get(wrappedKey);
+        byte[] noncePrefix = new byte[NONCE_PREFIX_BYTES];
+        rest.get(noncePrefix);
+
+        long bodyOffset = fixed.capacity() + rest.capacity();
+        long body = fileSize - bodyOffset;
+        long stride = fileChunkSize + TAG_BYTES;
+        long fullChunks = body / stride;
+        long remainder = body % stride;
+        if (remainder != 0 && remainder < TAG_BYTES || body < TAG_BYTES) {
+            throw new IOException("Encrypted file is truncated");
+        }
+        long plaintextSize = remainder == 0 ? fullChunks * fileChunkSize : fullChunks * fileChunkSize + remainder - TAG_BYTES;
+        long lastChunk = remainder == 0 ? fullChunks - 1 : fullChunks;
+        return new Header(unwrapKey(wrappedKey), noncePrefix, fileChunkSize, bodyOffset, plaintextSize, lastChunk);
+    }
+
+    private static byte[] chunkNonce(byte[] noncePrefix, long chunkIndex) {
+        return ByteBuffer.allocate(NONCE_BYTES).put(noncePrefix).putInt((int) chunkIndex).array();
+    }
+
+    private static byte[] chunkAad(boolean finalChunk) {
+        return new byte[]{(byte) (finalChunk ? 1 : 0)};
+    }
+
+    private static void readFully(PositionalReader reader, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = reader.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Encrypted file is truncated");
+            }
+            position += read;
+        }
+    }
+
+    private static int copy(byte[] source, ByteBuffer dst, long position) {
+        if (position >= source.length) {
+            return -1;
+        }
+        int length = (int) Math.min(dst.remaining(), source.length - position);
+        dst.put(source, (int) position, length);
+        return length;
+    }
+
+    /**
+     * Buffers one chunk of plaintext at a time. A full buffer is only sealed as a non-final chunk once
+     * more data arrives, so whatever is buffered at close is always the final chunk.
+     */
+    private static final class EncryptingOutputStream extends FilterOutputStream {
+        private final SecretKey dataKey;
+        private final byte[] noncePrefix;
+        private final byte[] buffer;
+        private final byte[] sealed;
+        private final Cipher cipher;
+        private int buffered;
+        private long chunkIndex;
+        private boolean closed;
+
+        private EncryptingOutputStream(OutputStream target, SecretKey dataKey, byte[] noncePrefix, int chunkSize)
+                throws GeneralSecurityException {
+            super(target);
+            this.dataKey = dataKey;
+            this.noncePrefix = noncePrefix;
+            this.buffer = new byte[chunkSize];
+            this.sealed = new byte[chunkSize + TAG_BYTES];
+            this.cipher = Cipher.getInstance(CIPHER);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (buffered == buffer.length) {
+                    sealChunk(false);
+                }
+                int count = Math.min(len, buffer.length - buffered);
+                System.arraycopy(b, off, buffer, buffered, count);
+                buffered += count;
+                off += count;
+                len -= count;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                sealChunk(true);
+                out.flush();
+            } finally {
+                out.close();
+            }
+        }
+
+        private void sealChunk(boolean finalChunk) throws IOException {
+            try {
+                cipher.init(Cipher.ENCRYPT_MODE, dataKey, new GCMParameterSpec(TAG_BYTES * 8, chunkNonce(noncePrefix, chunkIndex)));
+                cipher.updateAAD(chunkAad(finalChunk));
+                int length = cipher.doFinal(buffer, 0, buffered, sealed, 0);
+                out.write(sealed, 0, length);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Could not encrypt chunk " + chunkIndex, e);
+            }
+            chunkIndex++;
+            buffered = 0;
+        }
+    }
+
+    /**
+     * Decrypts lazily, one chunk at a time. Skipping only moves the position; nothing is read or
+     * decrypted until a byte inside a chunk is actually requested.
+     */
+    private static class DecryptingInputStream extends InputStream {
+        private final Header header;
+        private final PositionalReader reader;
+        private final Cipher cipher;
+        private final byte[] plaintext;
+        private final ByteBuffer sealed;
+        private long position;
+        private long loadedChunk = -1;
+        private int loadedLength;
+
+        private DecryptingInputStream(Header header, PositionalReader reader) throws IOException {
+            this.header = header;
+            this.reader = reader;
+            this.plaintext = new byte[header.chunkSize()];
+            this.sealed = ByteBuffer.allocate(header.chunkSize() + TAG_BYTES);
+            try {
+                this.cipher = Cipher.getInstance(CIPHER);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Could not set up file decryption", e);
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position >= header.plaintextSize()) {
+                // An empty file is a single empty final chunk; authenticate it so it cannot be forged or cut off
+                if (header.plaintextSize() == 0 && loadedChunk < 0) {
+                    loadChunk(0);
+                }
+                return -1;
+            }
+            long chunk = position / header.chunkSize();
+            if (chunk != loadedChunk) {
+                loadChunk(chunk);
+            }
+            int offsetInChunk = (int) (position - chunk * header.chunkSize());
+            int count = Math.min(len, loadedLength - offsetInChunk);
+            System.arraycopy(plaintext, offsetInChunk, b, off, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, header.plaintextSize() - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, header.plaintextSize() - position);
+        }
+
+        private void loadChunk(long chunk) throws IOException {
+            boolean finalChunk = chunk == header.lastChunk();
+            int plainLength = (int) Math.min(header.chunkSize(), header.plaintextSize() - chunk * header.chunkSize());
+            sealed.clear().limit(plainLength + TAG_BYTES);
+            readFully(reader, sealed, header.bodyOffset() + chunk * (header.chunkSize() + TAG_BYTES));
+            try {
+                cipher.init(Cipher.DECRYPT_MODE, header.dataKey(), new GCMParameterSpec(TAG_BYTES * 8, chunkNonce(header.noncePrefix(), chunk)));
+                cipher.updateAAD(chunkAad(finalChunk));
+                loadedLength = cipher.doFinal(sealed.array(), 0, sealed.limit(), plaintext, 0);
+                loadedChunk = chunk;
+            } catch (AEADBadTagException e) {
+                throw new IOException("Encrypted chunk " + chunk + " failed authentication", e);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Could not decrypt chunk " + chunk, e);
+            }
+        }
+    }
+}
@@ -1,36 +1,94 @@
 package com.example.nebulashare.service;
 
 import com.example.nebulashare.exception.FileStorageException;
+import com.example.nebulashare.model.FileChange;
 import com.example.nebulashare.model.FileData;
+import com.example.nebulashare.model.Folder;
 import com.example.nebulashare.model.User;
 import com.example.nebulashare.repository.FileDataRepository;
+import com.example.nebulashare.repository.FolderRepository;
 import jakarta.annotation.PostConstruct;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.UrlResource;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.StringUtils;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.function.Supplier;
 
 @Service
 public class FileStorageService {
 
+    private static final Logger log = LoggerFactory.getLogger(FileStorageService.class);
+
     private final Path fileStorageLocation;
     private final FileDataRepository fileDataRepository;
+    private final FolderRepository folderRepository;
+    private final SegmentStorageService segmentStorageService;
+    private final FileAccessStatsService fileAccessStatsService;
+    private final FileEncryptionService fileEncryptionService;
+    private final ChangeFeedService changeFeedService;
+    private final MailOutboxService mailOutboxService;
+    private final int uploadBufferSize;
+    private final FsyncPolicy fsyncPolicy;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionTemplate replicaTransaction;
+
+    /**
+     * How uploads are flushed to disk before their metadata is committed, both for individually stored files
+     * and for records appended to a segment. NONE leaves it to the OS, DATA forces the content, ALL forces
+     * content and file metadata.
+     */
+    public enum FsyncPolicy { NONE, DATA, ALL }
 
     @Autowired
-    public FileStorageService(@Value("${file.upload-dir}") String uploadDir, FileDataRepository fileDataRepository) {
+    public FileStorageService(@Value("${file.upload-dir}") String uploadDir, FileDataRepository fileDataRepository,
+                              FolderRepository folderRepository,
+                              SegmentStorageService segmentStorageService, FileAccessStatsService fileAccessStatsService,
+                              FileEncryptionService fileEncryptionService, ChangeFeedService changeFeedService,
+                              MailOutboxService mailOutboxService,
+                              @Value("${file.upload.buffer-size:65536}") int uploadBufferSize,
+                              @Value("${file.upload.fsync:NONE}") FsyncPolicy fsyncPolicy,
+                              TransactionTemplate transactionTemplate) {
         this.fileStorageLocation = Paths.get(uploadDir).toAbsolutePath().normalize();
         this.fileDataRepository = fileDataRepository;
+        this.folderRepository = folderRepository;
+        this.segmentStorageService = segmentStorageService;
+        this.fileAccessStatsService = fileAccessStatsService;
+        this.fileEncryptionService = fileEncryptionService;
+        this.changeFeedService = changeFeedService;
+        this.mailOutboxService = mailOutboxService;
+        this.uploadBufferSize = uploadBufferSize;
+        this.fsyncPolicy = fsyncPolicy;
+        this.transactionTemplate = transactionTemplate;
+        this.replicaTransaction = new TransactionTemplate(transactionTemplate.getTransactionManager());
+        this.replicaTransaction.setReadOnly(true);
     }
 
     @PostConstruct
@@ -43,8 +101,30 @@ public class FileStorageService {
     }
 
     // Store file
-    public FileData storeFile(MultipartFile file, User user) {
-        String originalFileName = StringUtils.cleanPath(Objects.requireNonNull(file.getOriginalFilename()));
+    @Transactional
+    public FileData storeFile(MultipartFile file, Long folderId, User user) {
+        String originalFileName = Objects.requireNonNull(file.getOriginalFilename());
+        try (InputStream in = file.getInputStream()) {
+            return storeFile(in, originalFileName, file.getContentType(), folderId, user);
+        } catch (IOException ex) {
+            throw new FileStorageException("Could not store file " + originalFileName, ex);
+        }
+    }
+
+    /**
+     * Stores an upload read straight from its stream, writing it exactly once.
+     * Size and SHA-256 checksum are computed on the way through, so the length need not be known up front.
+     *
+     * @param in The file content; read to the end but not closed.
+     * @param fileName The client-supplied file name.
+     * @param contentType The client-supplied content type, may be null.
+     * @param folderId The folder to store the file in, or null for the top level.
+     * @param user The owner of the file.
+     * @return The saved file metadata.
+     */
+    @Transactional
+    public FileData storeFile(InputStream in, String fileName, String contentType, Long folderId, User user) {
+        String originalFileName = StringUtils.cleanPath(Objects.requireNonNull(fileName));
 
         try {
             if (originalFileName.contains("..")) {
@@ -57,65 +137,225 @@ public class FileStorageService {
                 fileExtension = originalFileName.substring(dotIndex);
             }
 
-            String storedFileName = UUID.randomUUID() + fileExtension;
-            Path targetLocation = this.fileStorageLocation.resolve(storedFileName);
-            Files.copy(file.getInputStream(), targetLocation, StandardCopyOption.REPLACE_EXISTING);
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            DigestInputStream source = new DigestInputStream(in, digest);
+            boolean encrypt = fileEncryptionService.isEnabled();
+
+            // Small files are packed into segment files, everything else gets a file of its own.
+            // Reading one byte past the threshold tells the two apart without knowing the size in advance.
+            byte[] head = segmentStorageService.isEnabled()
+                    ? source.readNBytes((int) segmentStorageService.getSmallFileThreshold() + 1)
+                    : new byte[0];
+            long fileSize;
+            String storagePath;
+            if (segmentStorageService.isEnabled() && segmentStorageService.accepts(head.length)) {
+                fileSize = head.length;
+                storagePath = segmentStorageService.put(encrypt ? fileEncryptionService.encrypt(head) : head);
+            } else {
+                Path targetLocation = this.fileStorageLocation.resolve(UUID.randomUUID() + fileExtension);
+                fileSize = writeToFile(head, source, targetLocation, encrypt);
+                storagePath = targetLocation.toString();
+            }
+
+            // The folder is looked up only now, so the tree is not locked while the content streams in
+            Folder folder = null;
+            if (folderId != null) {
+                folderRepository.lockTree(user.getId());
+                folder = folderRepository.findWithLockByIdAndUserId(folderId, user.getId()).orElse(null);
+                if (folder == null) {
+                    deleteStoredFile(storagePath);
+                    throw new FileStorageException("Folder not found or not owned by user: " + folderId);
+                }
+            }
 
             FileData fileData = new FileData();
             fileData.setFileName(originalFileName);
-            fileData.setFileType(file.getContentType());
-            fileData.setFileSize(file.getSize());
-            fileData.setFilePath(targetLocation.toString());
+            fileData.setFileType(contentType != null ? contentType : MediaType.APPLICATION_OCTET_STREAM_VALUE);
+            fileData.setFileSize(fileSize);
+            fileData.setFilePath(storagePath);
+            fileData.setEncrypted(encrypt);
+            fileData.setChecksum(HexFormat.of().formatHex(digest.digest()));
+            fileData.setFolderId(folderId);
             fileData.setUser(user);
 
-            return fileDataRepository.save(fileData);
+            FileData saved = fileDataRepository.save(fileData);
+            if (folder != null) {
+                folderRepository.addToRollups(folder.getPathIds(), fileSize, 1);
+            }
+            changeFeedService.record(user, saved, FileChange.ChangeType.CREATED);
+            return saved;
 
-        } catch (IOException ex) {
+        } catch (IOException | NoSuchAlgorithmException ex) {
             throw new FileStorageException("Could not store file " + originalFileName, ex);
         }
     }
 
+    // Copy the rest of the upload into its destination in a single pass, encrypting on the way if enabled
+    private long writeToFile(byte[] head, InputStream source, Path targetLocation, boolean encrypt) throws IOException {
+        long written = head.length;
+        try (FileChannel channel = FileChannel.open(targetLocation, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            // Shield the channel so it is still open for the fsync once the encryptor has written its last chunk
+            OutputStream channelOut = CloseShieldOutputStream.wrap(Channels.newOutputStream(channel));
+            try (OutputStream out = encrypt ? fileEncryptionService.encryptingStream(channelOut) : channelOut) {
+                out.write(head);
+                byte[] buffer = new byte[uploadBufferSize];
+                int read;
+                while ((read = source.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                    written += read;
+                }
+            }
+            if (fsyncPolicy != FsyncPolicy.NONE) {
+                channel.force(fsyncPolicy == FsyncPolicy.ALL);
+            }
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(targetLocation);
+            throw ex;
+        }
+        return written;
+    }
+
     // Get files by user
+    @Transactional(readOnly = true)
     public List<FileData> getFilesByUser(User user) {
         return fileDataRepository.findByUser(user);
     }
 
     // Get file by ID
     public Optional<FileData> getFile(String fileId) {
-        return fileDataRepository.findById(fileId);
+        return findReadingYourWrites(() -> fileDataRepository.findById(fileId));
     }
 
-    // Create shareable link
-    public String createShareableLink(String fileId, String type) {
-        return "http://localhost:8080/share/" + fileId;
+    // Get the files directly inside a folder, or at the top level
+    @Transactional(readOnly = true)
+    public List<FileData> getFilesInFolder(Long folderId, User user) {
+        return fileDataRepository.findByUserAndFolderId(user, folderId);
+    }
+
+    // Get file by ID, only if owned by the user
+    public FileData getOwnedFile(String fileId, User user) {
+        return findReadingYourWrites(() -> fileDataRepository.findByIdAndUser(fileId, user))
+                .orElseThrow(() -> new FileStorageException("File not found or not owned by user: " + fileId));
+    }
+
+    // Create shareable link, optionally mailing it to someone
+    @Transactional
+    public String createShareableLink(String fileId, String type, String recipientEmail, User user) {
+        FileData fileData = getOwnedFile(fileId, user);
+        String link = "http://localhost:8080/share/" + fileId;
+        fileData.setShareableLink(link);
+        fileData.setLinkType(type == null ? FileData.LinkType.PERMANENT : FileData.LinkType.valueOf(type));
+        fileDataRepository.save(fileData);
+        changeFeedService.record(user, fileData, FileChange.ChangeType.UPDATED);
+
+        if (StringUtils.hasText(recipientEmail)) {
+            // Sharing the same file with the same person again only refreshes the pending mail
+            mailOutboxService.enqueue(recipientEmail, user.getUsername() + " shared \"" + fileData.getFileName() + "\" with you",
+                    user.getUsername() + " shared a file with you on NebulaShare:\n\n" + fileData.getFileName() + "\n" + link,
+                    "share:" + fileId + ":" + recipientEmail.toLowerCase());
+        }
+        return link;
     }
 
     // Load file as Resource
     public Resource loadFileAsResource(String fileId, User user) {
-        FileData fileData = fileDataRepository.findByIdAndUser(fileId, user)
+        FileData fileData = findReadingYourWrites(() -> fileDataRepository.findByIdAndUser(fileId, user))
                 .orElseThrow(() -> new FileStorageException("File not found: " + fileId));
 
+        return loadStoredFileAsResource(fileData.getStoragePath(), fileData.isEncrypted());
+    }
+
+    // Load file as Resource straight from its storage path, without touching the database
+    public Resource loadStoredFileAsResource(String storagePath, boolean encrypted) {
+        if (SegmentStorageService.isSegmentPath(storagePath)) {
+            byte[] content = segmentStorageService.read(storagePath);
+            return new ByteArrayResource(encrypted ? fileEncryptionService.decrypt(content) : content);
+        }
+
+        Path filePath = Paths.get(storagePath).toAbsolutePath().normalize();
+        if (!filePath.startsWith(this.fileStorageLocation)) {
+            throw new FileStorageException("File is outside the storage location: " + storagePath);
+        }
+
         try {
-            Path filePath = Paths.get(fileData.getFilePath());
-            Resource resource = new UrlResource(filePath.toUri());
+            Resource resource = encrypted ? fileEncryptionService.decryptingResource(filePath) : new UrlResource(filePath.toUri());
             if (resource.exists()) return resource;
-            else throw new FileStorageException("File not found: " + fileData.getFileName());
+            else throw new FileStorageException("File not found: " + filePath.getFileName());
         } catch (MalformedURLException e) {
-            throw new FileStorageException("File not found: " + fileData.getFileName(), e);
+            throw new FileStorageException("File not found: " + filePath.getFileName(), e);
         }
     }
 
     // ✅ Delete file
+    @Transactional
     public void deleteFile(String fileId, User user) {
+        folderRepository.lockTree(user.getId());
         FileData fileData = fileDataRepository.findByIdAndUser(fileId, user)
                 .orElseThrow(() -> new FileStorageException("File not found or not owned by user: " + fileId));
 
-        try {
-            Path filePath = Paths.get(fileData.getFilePath());
-            Files.deleteIfExists(filePath);
-            fileDataRepository.delete(fileData);
-        } catch (IOException e) {
-            throw new FileStorageException("Could not delete file: " + fileData.getFileName(), e);
+        fileDataRepository.delete(fileData);
+        if (fileData.getFolderId() != null) {
+            folderRepository.findWithLockByIdAndUserId(fileData.getFolderId(), user.getId()).ifPresent(folder ->
+                    folderRepository.addToRollups(folder.getPathIds(), -fileData.getFileSize(), -1));
+        }
+        fileAccessStatsService.forget(fileId);
+        changeFeedService.record(user, fileData, FileChange.ChangeType.DELETED);
+
+        // Only once the row is gone for good, so a rollback never leaves a file without content
+        String storagePath = fileData.getStoragePath();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                try {
+                    deleteStoredFile(storagePath);
+                } catch (IOException e) {
+                    log.warn("Could not remove stored file {}: {}", storagePath, e.getMessage());
+                }
+            }
+        });
+    }
+
+    // Move a file to another folder, or to the top level when folderId is null
+    @Transactional
+    public FileData moveFile(String fileId, Long folderId, User user) {
+        folderRepository.lockTree(user.getId());
+        FileData fileData = getOwnedFile(fileId, user);
+        if (Objects.equals(fileData.getFolderId(), folderId)) {
+            return fileData;
+        }
+        Folder target = folderId == null ? null : getOwnedFolder(folderId, user);
+
+        if (fileData.getFolderId() != null) {
+            folderRepository.findWithLockByIdAndUserId(fileData.getFolderId(), user.getId()).ifPresent(source ->
+                    folderRepository.addToRollups(source.getPathIds(), -fileData.getFileSize(), -1));
+        }
+        if (target != null) {
+            folderRepository.addToRollups(target.getPathIds(), fileData.getFileSize(), 1);
+        }
+        fileData.setFolderId(folderId);
+        FileData saved = fileDataRepository.save(fileData);
+        changeFeedService.record(user, saved, FileChange.ChangeType.UPDATED);
+        return saved;
+    }
+
+    private Folder getOwnedFolder(Long folderId, User user) {
+        return folderRepository.findWithLockByIdAndUserId(folderId, user.getId())
+                .orElseThrow(() -> new FileStorageException("Folder not found or not owned by user: " + folderId));
+    }
+
+    // Look a file up on a read replica, retrying on the primary when it is not there, so a file the caller
+    // uploaded a moment ago is found while the replica lags; inside a read-write transaction both use the primary
+    private Optional<FileData> findReadingYourWrites(Supplier<Optional<FileData>> lookup) {
+        return replicaTransaction.execute(status -> lookup.get())
+                .or(() -> transactionTemplate.execute(status -> lookup.get()));
+    }
+
+    // Remove a file's content from whichever storage engine holds it
+    public void deleteStoredFile(String storagePath) throws IOException {
+        if (SegmentStorageService.isSegmentPath(storagePath)) {
+            segmentStorageService.delete(storagePath);
+        } else {
+            Files.deleteIfExists(Paths.get(storagePath));
         }
     }
 }
@@ -0,0 +1,252 @@
+package com.example.nebulashare.service;
+
+import com.example.nebulashare.exception.FileStorageException;
+import com.example.nebulashare.model.FileChange;
+import com.example.nebulashare.model.FileData;
+import com.example.nebulashare.model.Folder;
+import com.example.nebulashare.model.User;
+import com.example.nebulashare.repository.FileDataRepository;
+import com.example.nebulashare.repository.FolderRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Folder tree operations.
+ *
+ * Folders keep a materialized path of ids, so listing or deleting a subtree is one prefix range scan and
+ * moving a subtree is one UPDATE over its folders; files only point at their folder and never change on a
+ * move. Every folder carries the total size and file count of its subtree, adjusted along the path on each
+ * change. Changes to a user's tree are serialized on their {@code users} row.
+ */
+@Service
+public class FolderService {
+
+    private static final Logger log = LoggerFactory.getLogger(FolderService.class);
+
+    // Matches the column; a path grows by at most this much per level
+    private static final int MAX_PATH_LENGTH = 760;
+    private static final int MAX_SEGMENT_LENGTH = 21;
+
+    @Autowired
+    private FolderRepository folderRepository;
+
+    @Autowired
+    private FileDataRepository fileDataRepository;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private FileAccessStatsService fileAccessStatsService;
+
+    @Autowired
+    private ChangeFeedService changeFeedService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${folder.delete.batch-size:500}")
+    private int deleteBatchSize;
+
+    /**
+     * A folder with what is inside it.
+     *
+     * @param folder The folder, or null for the top level.
+     * @param folders The folders inside it.
+     * @param files The files inside it.
+     */
+    public record FolderListing(Folder folder, List<Folder> folders, List<FileData> files) {
+    }
+
+    /**
+     * Creates a folder.
+     *
+     * @param name The folder name, unique among its siblings.
+     * @param parentId The folder to create it in, or null for the top level.
+     * @param user The owner.
+     * @return The new folder.
+     */
+    @Transactional
+    public Folder createFolder(String name, Long parentId, User user) {
+        if (name == null || name.isBlank()) {
+            throw new FileStorageException("Folder name must not be empty.");
+        }
+        String folderName = name.trim();
+        folderRepository.lockTree(user.getId());
+        Folder parent = parentId == null ? null : getOwnedFolder(parentId, user);
+        String parentPath = parent == null ? "/" : parent.getPath();
+        if (parentPath.length() + MAX_SEGMENT_LENGTH > MAX_PATH_LENGTH) {
+            throw new FileStorageException("Folders cannot be nested this deeply.");
+        }
+        if (folderRepository.existsByUserIdAndParentIdAndName(user.getId(), parentId, folderName)) {
+            throw new FileStorageException("A folder named " + folderName + " already exists here.");
+        }
+
+        Folder folder = new Folder();
+        folder.setUserId(user.getId());
+        folder.setParentId(parentId);
+        folder.setName(folderName);
+        // The path ends in the folder's own id, which is only known once it has been inserted
+        folder.setPath(parentPath);
+        folderRepository.save(folder);
+        folder.setPath(parentPath + folder.getId() + "/");
+        return folderRepository.save(folder);
+    }
+
+    // List one folder, or the top level when folderId is null, with two indexed queries
+    @Transactional(readOnly = true)
+    public FolderListing listFolder(Long folderId, User user) {
+        Folder folder = folderId == null ? null : folderRepository.findByIdAndUserId(folderId, user.getId())
+                .orElseThrow(() -> new FileStorageException("Folder not found or not owned by user: " + folderId));
+        return new FolderListing(folder,
+                folderRepository.findByUserIdAndParentIdOrderByName(user.getId(), folderId),
+                fileDataRepository.findByUserAndFolderId(user, folderId));
+    }
+
+    // List a folder and everything below it, without walking the tree
+    @Transactional(readOnly = true)
+    public FolderListing listSubtree(Long folderId, User user) {
+        Folder folder = folderRepository.findByIdAndUserId(folderId, user.getId())
+                .orElseThrow(() -> new FileStorageException("Folder not found or not owned by user: " + folderId));
+        List<Folder> folders = folderRepository.findByUserIdAndPathStartingWithOrderByPath(user.getId(), folder.getPath());
+        return new FolderListing(folder, folders.subList(1, folders.size()),
+                fileDataRepository.findBySubtree(user, folder.getPath()));
+    }
+
+    /**
+     * Moves a folder with everything below it.
+     *
+     * @param folderId The folder to move.
+     * @param newParentId The folder to move it into, or null for the top level.
+     * @param user The owner.
+     * @return The moved folder.
+     */
+    @Transactional
+    public Folder moveFolder(Long folderId, Long newParentId, User user) {
+        folderRepository.lockTree(user.getId());
+        Folder folder = getOwnedFolder(folderId, user);
+        if (Objects.equals(folder.getParentId(), newParentId)) {
+            return folder;
+        }
+        Folder newParent = newParentId == null ? null : getOwnedFolder(newParentId, user);
+        String oldPath = folder.getPath();
+        if (newParent != null && newParent.getPath().startsWith(oldPath)) {
+            throw new FileStorageException("A folder cannot be moved into itself or one of its subfolders.");
+        }
+        if (folderRepository.existsByUserIdAndParentIdAndName(user.getId(), newParentId, folder.getName())) {
+            throw new FileStorageException("A folder named " + folder.getName() + " already exists there.");
+        }
+        String newPath = (newParent == null ? "/" : newParent.getPath()) + folder.getId() + "/";
+        if (folderRepository.findMaxPathLength(user.getId(), oldPath) - oldPath.length() + newPath.length() > MAX_PATH_LENGTH) {
+            throw new FileStorageException("Folders cannot be nested this deeply.");
+        }
+
+        // The subtree's totals leave the old ancestors and join the new ones
+        List<Long> oldAncestors = folder.getPathIds().subList(0, folder.getPathIds().size() - 1);
+        if (!oldAncestors.isEmpty()) {
+            folderRepository.addToRollups(oldAncestors, -folder.getTotalSize(), -folder.getFileCount());
+        }
+        if (newParent != null) {
+            folderRepository.addToRollups(newParent.getPathIds(), folder.getTotalSize(), folder.getFileCount());
+        }
+        folder.setParentId(newParentId);
+        folderRepository.save(folder);
+        folderRepository.movePaths(user.getId(), oldPath, newPath);
+        return folderRepository.findById(folderId).orElseThrow();
+    }
+
+    /**
+     * Deletes a folder with all folders and files below it.
+     *
+     * The subtree goes in batches of {@code folder.delete.batch-size}, each in its own short transaction under
+     * the tree lock, so a large folder never holds the lock or one transaction open for long. Files go first and
+     * leave the rollups as they go, so the tree adds up between batches; the folder rows go last, once no file is
+     * left below them. Stored content is removed after each batch commits, so a rollback never leaves rows
+     * without content.
+     *
+     * @param folderId The folder to delete.
+     * @param user The owner.
+     * @return The number of files deleted.
+     */
+    public int deleteFolder(Long folderId, User user) {
+        int deleted = 0;
+        while (true) {
+            Integer batch = transactionTemplate.execute(status -> deleteBatch(folderId, user));
+            if (batch == null) {
+                return deleted;
+            }
+            deleted += batch;
+        }
+    }
+
+    // Delete the next batch of the subtree; returns the number of files deleted, or null once the folder is gone
+    private Integer deleteBatch(Long folderId, User user) {
+        folderRepository.lockTree(user.getId());
+        Folder folder = getOwnedFolder(folderId, user);
+        String path = folder.getPath();
+        List<FileData> files = fileDataRepository.findBySubtree(user, path, PageRequest.of(0, deleteBatchSize));
+        if (!files.isEmpty()) {
+            deleteFiles(files, user);
+            return files.size();
+        }
+
+        // Nothing is left below, so the rollups are already down to zero
+        int folders = jdbcTemplate.update("DELETE FROM folders WHERE user_id = ? AND path LIKE ? AND id <> ? LIMIT ?",
+                user.getId(), path + "%", folderId, deleteBatchSize);
+        if (folders > 0) {
+            return 0;
+        }
+        folderRepository.delete(folder);
+        return null;
+    }
+
+    private void deleteFiles(List<FileData> files, User user) {
+        changeFeedService.recordAll(user, files, FileChange.ChangeType.DELETED);
+        fileAccessStatsService.forgetAll(files.stream().map(FileData::getId).toList());
+        fileDataRepository.deleteAllInBatch(files);
+
+        Map<Long, List<FileData>> byFolder = files.stream().collect(Collectors.groupingBy(FileData::getFolderId));
+        for (Folder folder : folderRepository.findAllById(byFolder.keySet())) {
+            List<FileData> inFolder = byFolder.get(folder.getId());
+            folderRepository.addToRollups(folder.getPathIds(),
+                    -inFolder.stream().mapToLong(FileData::getFileSize).sum(), -inFolder.size());
+        }
+
+        List<String> storagePaths = files.stream().map(FileData::getStoragePath).toList();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                for (String storagePath : storagePaths) {
+                    try {
+                        fileStorageService.deleteStoredFile(storagePath);
+                    } catch (IOException e) {
+                        log.warn("Could not remove stored file {}: {}", storagePath, e.getMessage());
+                    }
+                }
+            }
+        });
+    }
+
+    private Folder getOwnedFolder(Long folderId, User user) {
+        return folderRepository.findWithLockByIdAndUserId(folderId, user.getId())
+                .orElseThrow(() -> new FileStorageException("Folder not found or not owned by user: " + folderId));
+    }
+}
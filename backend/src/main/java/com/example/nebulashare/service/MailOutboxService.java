@@ -0,0 +1,363 @@
+package com.example.nebulashare.service;
+
+import com.example.nebulashare.model.MailOutboxMessage;
+import com.example.nebulashare.repository.MailOutboxRepository;
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.MimeMessageHelper;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Queues outgoing mail in {@code mail_outbox} and delivers it in the background.
+ *
+ * Messages are written in the caller's transaction, so a notification goes out only if the action
+ * behind it commits and SMTP latency never reaches the request path. A dedicated thread claims due
+ * messages with a short lease, folds everything waiting for the same recipient into one mail and sends
+ * the batch over as few SMTP connections as the lease allows. Each connection carries only as many mails as
+ * can be sent well inside the lease, and the lease on them is renewed just before, so a slow server cannot
+ * let it run out mid-send and hand the same mail to another node. Rows are marked sent or failed only while
+ * the claim still holds them. Failures are retried with exponential backoff; since a claim is only a lease,
+ * a node that dies mid-send leaves its messages to be picked up again.
+ */
+@Service
+public class MailOutboxService {
+
+    private static final Logger log = LoggerFactory.getLogger(MailOutboxService.class);
+
+    @Autowired
+    private MailOutboxRepository mailOutboxRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ObjectProvider<JavaMailSender> mailSenderProvider;
+
+    @Value("${mail.from:no-reply@nebulashare.local}")
+    private String from;
+
+    @Value("${mail.outbox.enabled:true}")
+    private boolean enabled;
+
+    @Value("${mail.outbox.batch-size:50}")
+    private int batchSize;
+
+    @Value("${mail.outbox.poll-interval-ms:2000}")
+    private long pollIntervalMillis;
+
+    @Value("${mail.outbox.lease-ms:60000}")
+    private long leaseMillis;
+
+    // Longest one mail is expected to take, matching the SMTP client's timeouts
+    @Value("${mail.outbox.max-send-ms:5000}")
+    private long maxSendMillis;
+
+    @Value("${mail.outbox.max-attempts:8}")
+    private int maxAttempts;
+
+    @Value("${mail.outbox.backoff-base-ms:30000}")
+    private long backoffBaseMillis;
+
+    @Value("${mail.outbox.backoff-max-ms:3600000}")
+    private long backoffMaxMillis;
+
+    @Value("${mail.outbox.retention-days:7}")
+    private int retentionDays;
+
+    // Kept off the shared @Scheduled thread so a slow SMTP server cannot hold up other background work
+    private final ScheduledExecutorService dispatcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "mail-dispatcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private record Claimed(long id, String recipient, String subject, String body, int attempts) {
+    }
+
+    /**
+     * Queues a mail as part of the caller's transaction.
+     *
+     * @param recipient The address to send to.
+     * @param subject The subject line.
+     * @param body The plain-text body.
+     * @param coalesceKey Identifies the notification; a pending mail with the same key that no dispatcher has
+     *                    claimed is replaced. May be null.
+     */
+    @Transactional
+    public void enqueue(String recipient, String subject, String body, String coalesceKey) {
+        LocalDateTime now = LocalDateTime.now();
+        if (coalesceKey != null && replaceDue(coalesceKey, recipient, subject, body, now)) {
+            return;
+        }
+        MailOutboxMessage message = new MailOutboxMessage();
+        message.setRecipient(recipient);
+        message.setSubject(subject);
+        message.setBody(body);
+        message.setCoalesceKey(coalesceKey);
+        message.setStatus(MailOutboxMessage.Status.PENDING);
+        message.setNextAttemptAt(now);
+        mailOutboxRepository.save(message);
+    }
+
+    // Rewrite a due message in place, guarded like a claim so a dispatcher leasing it meanwhile wins
+    private boolean replaceDue(String coalesceKey, String recipient, String subject, String body, LocalDateTime now) {
+        return mailOutboxRepository
+                .findFirstByCoalesceKeyAndStatusAndNextAttemptAtLessThanEqual(coalesceKey, MailOutboxMessage.Status.PENDING, now)
+                .map(due -> jdbcTemplate.update(
+                        "UPDATE mail_outbox SET recipient = ?, subject = ?, body = ?, attempts = 0, next_attempt_at = ?, last_error = NULL, "
+                                + "lease_owner = NULL "
+                                + "WHERE id = ? AND status = ? AND next_attempt_at <= ?",
+                        recipient, subject, body, Timestamp.valueOf(now), due.getId(),
+                        MailOutboxMessage.Status.PENDING.name(), Timestamp.valueOf(now)) == 1)
+                .orElse(false);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        if (mailSenderProvider.getIfAvailable() == null) {
+            log.warn("No mail server configured (spring.mail.host); queued mail will not be delivered");
+            return;
+        }
+        dispatcher.scheduleWithFixedDelay(this::dispatchSafely, pollIntervalMillis, pollIntervalMillis, TimeUnit.MILLISECONDS);
+        dispatcher.scheduleWithFixedDelay(this::purgeSentSafely, 1, 60, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        dispatcher.shutdown();
+        dispatcher.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Sends one batch of due messages.
+     *
+     * @return The number of outbox rows handled, successfully or not.
+     */
+    public int dispatch() {
+        JavaMailSender mailSender = mailSenderProvider.getObject();
+        String claim = UUID.randomUUID().toString();
+        List<Claimed> claimed = claimDue(claim);
+        if (claimed.isEmpty()) {
+            return 0;
+        }
+
+        // One mail per recipient, however many notifications are waiting for them
+        Map<String, List<Claimed>> byRecipient = claimed.stream()
+                .collect(Collectors.groupingBy(Claimed::recipient, LinkedHashMap::new, Collectors.toList()));
+        Map<MimeMessage, List<Claimed>> outgoing = new LinkedHashMap<>();
+        List<Claimed> failed = new ArrayList<>();
+        for (List<Claimed> group : byRecipient.values()) {
+            try {
+                outgoing.put(compose(mailSender, group), group);
+            } catch (MessagingException e) {
+                log.warn("Could not compose mail to {}", group.get(0).recipient(), e);
+                failed.addAll(group);
+            }
+        }
+
+        String error = null;
+        List<Claimed> sent = new ArrayList<>();
+        List<MimeMessage> mails = new ArrayList<>(outgoing.keySet());
+        int perConnection = mailsPerLease();
+        for (int start = 0; start < mails.size(); start += perConnection) {
+            Map<MimeMessage, List<Claimed>> slice = renewLease(claim,
+                    mails.subList(start, Math.min(start + perConnection, mails.size())), outgoing);
+            if (slice.isEmpty()) {
+                continue;
+            }
+            try {
+                // JavaMailSender sends an array over a single connection
+                mailSender.send(slice.keySet().toArray(MimeMessage[]::new));
+                slice.values().forEach(sent::addAll);
+            } catch (MailSendException e) {
+                Map<Object, Exception> failedMessages = e.getFailedMessages();
+                slice.forEach((mime, group) -> (failedMessages.containsKey(mime) ? failed : sent).addAll(group));
+                error = e.getMessage();
+            } catch (MailException e) {
+                slice.values().forEach(failed::addAll);
+                error = e.getMessage();
+            }
+        }
+
+        markSent(claim, sent);
+        markFailed(claim, failed, error);
+        if (!failed.isEmpty()) {
+            log.warn("Could not deliver {} of {} queued mails: {}", failed.size(), claimed.size(), error);
+        }
+        return claimed.size();
+    }
+
+    // How many mails one connection may carry and still finish in half the lease, leaving the rest as margin
+    private int mailsPerLease() {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, leaseMillis / 2 / Math.max(1, maxSendMillis)));
+    }
+
+    // Take a lease on due messages; a message whose lease runs out becomes due again
+    private List<Claimed> claimDue(String claim) {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<Claimed> due = jdbcTemplate.query(
+                "SELECT id, recipient, subject, body, attempts FROM mail_outbox WHERE status = ? AND next_attempt_at <= ? ORDER BY id LIMIT ?",
+                (rs, rowNum) -> new Claimed(rs.getLong("id"), rs.getString("recipient"), rs.getString("subject"),
+                        rs.getString("body"), rs.getInt("attempts") + 1),
+                MailOutboxMessage.Status.PENDING.name(), now, batchSize);
+        if (due.isEmpty()) {
+            return due;
+        }
+
+        Timestamp leaseUntil = leaseExpiry();
+        int[] updated = jdbcTemplate.batchUpdate(
+                "UPDATE mail_outbox SET attempts = attempts + 1, next_attempt_at = ?, lease_owner = ? "
+                        + "WHERE id = ? AND status = ? AND next_attempt_at <= ?",
+                due.stream().map(message -> new Object[]{leaseUntil, claim, message.id(), MailOutboxMessage.Status.PENDING.name(), now})
+                        .toList());
+        List<Claimed> claimed = new ArrayList<>();
+        for (int i = 0; i < due.size(); i++) {
+            // Anything other than one row means another node got there first
+            if (updated[i] == 1) {
+                claimed.add(due.get(i));
+            }
+        }
+        return claimed;
+    }
+
+    // Extend the lease on the mails about to be sent, keeping only those whose rows the claim still holds in full
+    private Map<MimeMessage, List<Claimed>> renewLease(String claim, List<MimeMessage> mails, Map<MimeMessage, List<Claimed>> outgoing) {
+        Timestamp leaseUntil = leaseExpiry();
+        List<Claimed> rows = mails.stream().flatMap(mime -> outgoing.get(mime).stream()).toList();
+        int[] updated = jdbcTemplate.batchUpdate("UPDATE mail_outbox SET next_attempt_at = ? WHERE id = ? AND status = ? AND lease_owner = ?",
+                rows.stream().map(message -> new Object[]{leaseUntil, message.id(), MailOutboxMessage.Status.PENDING.name(), claim})
+                        .toList());
+        Set<Long> lost = new HashSet<>();
+        for (int i = 0; i < rows.size(); i++) {
+            if (updated[i] != 1) {
+                lost.add(rows.get(i).id());
+            }
+        }
+
+        Map<MimeMessage, List<Claimed>> renewed = new LinkedHashMap<>();
+        for (MimeMessage mime : mails) {
+            List<Claimed> group = outgoing.get(mime);
+            if (group.stream().anyMatch(message -> lost.contains(message.id()))) {
+                // Rewritten or claimed elsewhere since; whoever holds it now sends it
+                log.info("Skipping mail to {}, its lease was lost", group.get(0).recipient());
+            } else {
+                renewed.put(mime, group);
+            }
+        }
+        return renewed;
+    }
+
+    private Timestamp leaseExpiry() {
+        return Timestamp.valueOf(LocalDateTime.now().plusNanos(leaseMillis * 1_000_000));
+    }
+
+    private MimeMessage compose(JavaMailSender mailSender, List<Claimed> group) throws MessagingException {
+        MimeMessage mime = mailSender.createMimeMessage();
+        MimeMessageHelper helper = new MimeMessageHelper(mime, "UTF-8");
+        helper.setFrom(from);
+        helper.setTo(group.get(0).recipient());
+        if (group.size() == 1) {
+            helper.setSubject(group.get(0).subject());
+            helper.setText(group.get(0).body());
+        } else {
+            helper.setSubject("You have " + group.size() + " new notifications from NebulaShare");
+            helper.setText(group.stream()
+                    .map(message -> message.subject() + "\n\n" + message.body())
+                    .collect(Collectors.joining("\n\n----\n\n")));
+        }
+        return mime;
+    }
+
+    // Rows the claim no longer holds were rewritten or taken over meanwhile and are left to their new owner
+    private void markSent(String claim, List<Claimed> sent) {
+        if (sent.isEmpty()) {
+            return;
+        }
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        int[] updated = jdbcTemplate.batchUpdate(
+                "UPDATE mail_outbox SET status = ?, sent_at = ?, last_error = NULL, lease_owner = NULL WHERE id = ? AND lease_owner = ?",
+                sent.stream().map(message -> new Object[]{MailOutboxMessage.Status.SENT.name(), now, message.id(), claim}).toList());
+        warnIfLost(updated, "sent");
+    }
+
+    private void markFailed(String claim, List<Claimed> failed, String error) {
+        if (failed.isEmpty()) {
+            return;
+        }
+        String lastError = error == null ? null : error.substring(0, Math.min(error.length(), 1024));
+        int[] updated = jdbcTemplate.batchUpdate(
+                "UPDATE mail_outbox SET status = ?, next_attempt_at = ?, last_error = ?, lease_owner = NULL WHERE id = ? AND lease_owner = ?",
+                failed.stream().map(message -> {
+                    boolean giveUp = message.attempts() >= maxAttempts;
+                    LocalDateTime retryAt = LocalDateTime.now().plusNanos(backoffFor(message.attempts()) * 1_000_000);
+                    return new Object[]{(giveUp ? MailOutboxMessage.Status.FAILED : MailOutboxMessage.Status.PENDING).name(),
+                            Timestamp.valueOf(retryAt), lastError, message.id(), claim};
+                }).toList());
+        warnIfLost(updated, "failed");
+    }
+
+    private void warnIfLost(int[] updated, String outcome) {
+        long lost = Arrays.stream(updated).filter(count -> count != 1).count();
+        if (lost > 0) {
+            log.warn("{} mails could not be marked {}: their lease ran out while they were being sent", lost, outcome);
+        }
+    }
+
+    // base, 2 x base, 4 x base, ... capped
+    private long backoffFor(int attempts) {
+        long backoff = backoffBaseMillis << Math.min(attempts - 1, 20);
+        return Math.min(backoff, backoffMaxMillis);
+    }
+
+    private void dispatchSafely() {
+        try {
+            // Keep going while full batches come back, so a backlog drains without waiting for the next poll
+            int handled;
+            do {
+                handled = dispatch();
+            } while (handled >= batchSize);
+        } catch (RuntimeException e) {
+            log.error("Mail dispatch failed", e);
+        }
+    }
+
+    private void purgeSentSafely() {
+        try {
+            jdbcTemplate.update("DELETE FROM mail_outbox WHERE status = ? AND sent_at < ?",
+                    MailOutboxMessage.Status.SENT.name(), Timestamp.valueOf(LocalDateTime.now().minusDays(retentionDays)));
+        } catch (RuntimeException e) {
+            log.warn("Could not purge sent mail", e);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.nebulashare.service;
+
+import com.example.nebulashare.model.FileData;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Optional;
+
+/**
+ * Mints and verifies stateless download tokens.
+ * Everything the download route needs (file id, storage path, size, encryption flag, content type, name and expiry)
+ * travels inside the token under an HMAC, so serving a presigned download never touches the database.
+ */
+@Service
+public class PresignedUrlService {
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final String KEY_DERIVATION_LABEL = "nebulashare-presign";
+    private static final byte TOKEN_VERSION = 2;
+
+    private final SecretKeySpec signingKey;
+    private final long defaultTtlSeconds;
+    private final long maxTtlSeconds;
+
+    // Mac instances are not thread-safe, so each request thread keeps its own
+    private final ThreadLocal<Mac> macs;
+
+    public PresignedUrlService(@Value("${file.presign.secret:}") String secret,
+                               @Value("${jwt.secret}") String jwtSecret,
+                               @Value("${file.presign.ttl-seconds:300}") long defaultTtlSeconds,
+                               @Value("${file.presign.max-ttl-seconds:3600}") long maxTtlSeconds) {
+        byte[] keyBytes = secret.isBlank() ? deriveKey(jwtSecret) : secret.getBytes(StandardCharsets.UTF_8);
+        this.signingKey = new SecretKeySpec(keyBytes, HMAC_ALGORITHM);
+        this.defaultTtlSeconds = defaultTtlSeconds;
+        this.maxTtlSeconds = maxTtlSeconds;
+        this.macs = ThreadLocal.withInitial(this::newMac);
+    }
+
+    /**
+     * Signed download payload, decoded from a verified token.
+     */
+    public record PresignedFile(String fileId, String storagePath, long fileSize, boolean encrypted,
+                                String fileType, String fileName, Instant expiresAt) {
+    }
+
+    // Create a signed token for the given file
+    public String createToken(FileData fileData, Instant expiresAt) {
+        byte[] payload = encode(new PresignedFile(
+                fileData.getId(),
+                fileData.getStoragePath(),
+                fileData.getFileSize(),
+                fileData.isEncrypted(),
+                fileData.getFileType() != null ? fileData.getFileType() : "application/octet-stream",
+                fileData.getFileName(),
+                expiresAt));
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return encoder.encodeToString(payload) + "." + encoder.encodeToString(sign(payload));
+    }
+
+    // Resolve the expiry for a requested TTL, falling back to the default and capping at the maximum
+    public Instant expiryFor(Long requestedTtlSeconds) {
+        long ttl = requestedTtlSeconds == null || requestedTtlSeconds <= 0 ? defaultTtlSeconds : requestedTtlSeconds;
+        return Instant.now().plusSeconds(Math.min(ttl, maxTtlSeconds));
+    }
+
+    /**
+     * Verifies a token's signature and expiry.
+     *
+     * @param token The token taken from the download URL.
+     * @return The signed payload, or an empty Optional if the token is malformed, tampered with or expired.
+     */
+    public Optional<PresignedFile> verifyToken(String token) {
+        int separator = token.indexOf('.');
+        if (separator <= 0 || separator == token.length() - 1) {
+            return Optional.empty();
+        }
+
+        try {
+            Base64.Decoder decoder = Base64.getUrlDecoder();
+            byte[] payload = decoder.decode(token.substring(0, separator));
+            byte[] signature = decoder.decode(token.substring(separator + 1));
+            if (!MessageDigest.isEqual(sign(payload), signature)) {
+                return Optional.empty();
+            }
+
+            PresignedFile file = decode(payload);
+            if (file.expiresAt().isBefore(Instant.now())) {
+                return Optional.empty();
+            }
+            return Optional.of(file);
+        } catch (IllegalArgumentException | IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    // Without a dedicated secret, sign with HMAC(jwt.secret, label) so download tokens and JWTs never share a key
+    private static byte[] deriveKey(String jwtSecret) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(new SecretKeySpec(jwtSecret.getBytes(StandardCharsets.UTF_8), HMAC_ALGORITHM));
+            return mac.doFinal(KEY_DERIVATION_LABEL.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not derive the download signing key", e);
+        }
+    }
+
+    private byte[] sign(byte[] payload) {
+        Mac mac = macs.get();
+        mac.reset();
+        return mac.doFinal(payload);
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(signingKey);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not initialise " + HMAC_ALGORITHM, e);
+        }
+    }
+
+    private static byte[] encode(PresignedFile file) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(TOKEN_VERSION);
+            out.writeUTF(file.fileId());
+            out.writeUTF(file.storagePath());
+            out.writeLong(file.fileSize());
+            out.writeBoolean(file.encrypted());
+            out.writeUTF(file.fileType());
+            out.writeUTF(file.fileName());
+            out.writeLong(file.expiresAt().getEpochSecond());
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not encode download token", e);
+        }
+    }
+
+    private static PresignedFile decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        if (in.readByte() != TOKEN_VERSION) {
+            throw new IOException("Unsupported token version");
+        }
+        return new PresignedFile(
+                in.readUTF(),
+                in.readUTF(),
+                in.readLong(),
+                in.readBoolean(),
+                in.readUTF(),
+                in.readUTF(),
+                Instant.ofEpochSecond(in.readLong()));
+    }
+}
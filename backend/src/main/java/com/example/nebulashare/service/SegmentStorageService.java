@@ -0,0 +1,582 @@
+package com.example.nebulashare.service;
+
+import com.example.nebulashare.exception.FileStorageException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Packs small files into large append-only segment files.
+ *
+ * Each file is stored as one record in the active segment and located through an in-memory index of
+ * key to segment offset. Deletions append a tombstone. The index is snapshotted to disk and, on startup,
+ * loaded from the snapshot and brought up to date by scanning whatever was appended after it.
+ * Segments that are mostly garbage are compacted in the background by copying their live records
+ * into the active segment and deleting the old file.
+ *
+ * With an fsync policy other than NONE, {@link #put} and {@link #delete} return only once their record is
+ * on disk. Forces are group-committed: writers that arrive while a force is running wait for it and are
+ * usually covered by the next one, so concurrent small uploads share a single fsync.
+ *
+ * Record layout: magic (4) | type (1) | key length (2) | key | data length (4) | data | CRC32C of type..data (4)
+ */
+@Service
+public class SegmentStorageService {
+
+    private static final Logger log = LoggerFactory.getLogger(SegmentStorageService.class);
+
+    public static final String PATH_PREFIX = "segment:";
+
+    private static final int RECORD_MAGIC = 0x4E534547; // "NSEG"
+    private static final int SNAPSHOT_MAGIC = 0x4E534958; // "NSIX"
+    private static final byte TYPE_PUT = 1;
+    private static final byte TYPE_TOMBSTONE = 2;
+    private static final int HEADER_BYTES = 4 + 1 + 2;
+    private static final int RECORD_OVERHEAD = HEADER_BYTES + 4 + 4;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final String SNAPSHOT_FILE = "index.snapshot";
+
+    private final boolean enabled;
+    private final Path segmentDirectory;
+    private final long smallFileThreshold;
+    private final long maxSegmentSize;
+    private final double compactionGarbageRatio;
+    private final FileStorageService.FsyncPolicy fsyncPolicy;
+
+    private final Map<String, Location> index = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private Segment activeSegment;
+
+    public SegmentStorageService(@Value("${file.segment.enabled:false}") boolean enabled,
+                                 @Value("${file.segment.dir:${file.upload-dir}/segments}") String segmentDir,
+                                 @Value("${file.segment.small-file-threshold:65536}") long smallFileThreshold,
+                                 @Value("${file.segment.max-segment-size:268435456}") long maxSegmentSize,
+                                 @Value("${file.segment.compaction-garbage-ratio:0.5}") double compactionGarbageRatio,
+                                 @Value("${file.upload.fsync:NONE}") FileStorageService.FsyncPolicy fsyncPolicy) {
+        this.enabled = enabled;
+        this.segmentDirectory = Paths.get(segmentDir).toAbsolutePath().normalize();
+        this.smallFileThreshold = smallFileThreshold;
+        this.maxSegmentSize = maxSegmentSize;
+        this.compactionGarbageRatio = compactionGarbageRatio;
+        this.fsyncPolicy = fsyncPolicy;
+    }
+
+    /**
+     * Position of a record inside a segment. {@code dataOffset} points at the first byte of the file content.
+     */
+    private record Location(int segmentId, long offset, int recordLength, long dataOffset, int dataLength) {
+    }
+
+    private static final class Segment {
+        private final int id;
+        private final Path path;
+        private final FileChannel channel;
+        private final AtomicLong liveBytes = new AtomicLong();
+        // Serialises forces; whoever holds it syncs everything appended so far
+        private final ReentrantLock syncLock = new ReentrantLock();
+        private volatile long size;
+        private volatile long syncedSize;
+
+        private Segment(int id, Path path, FileChannel channel, long size) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.size = size;
+            this.syncedSize = size;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            Files.createDirectories(segmentDirectory);
+            openSegments();
+            rebuildIndex();
+            Segment last = segments.isEmpty() ? null : segments.lastEntry().getValue();
+            activeSegment = last != null && last.size < maxSegmentSize ? last : createSegment();
+            log.info("Segment storage ready: {} files in {} segments", index.size(), segments.size());
+        } catch (IOException ex) {
+            throw new FileStorageException("Could not open segment storage in " + segmentDirectory, ex);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (!enabled) {
+            return;
+        }
+        writeLock.lock();
+        try {
+            writeSnapshot();
+            for (Segment segment : segments.values()) {
+                segment.channel.force(true);
+                segment.channel.close();
+            }
+        } catch (IOException ex) {
+            log.warn("Could not close segment storage cleanly", ex);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Whether a file of this size should be packed into a segment
+    public boolean accepts(long fileSize) {
+        return enabled && fileSize <= smallFileThreshold;
+    }
+
+    public long getSmallFileThreshold() {
+        return smallFileThreshold;
+    }
+
+    public static boolean isSegmentPath(String storagePath) {
+        return storagePath != null && storagePath.startsWith(PATH_PREFIX);
+    }
+
+    /**
+     * Appends a file to the active segment.
+     *
+     * @param data The file content.
+     * @return The storage path to record in {@code FileData.filePath}.
+     */
+    public String put(byte[] data) {
+        String key = UUID.randomUUID().toString();
+        Location location;
+        writeLock.lock();
+        try {
+            location = append(TYPE_PUT, key, data);
+            index.put(key, location);
+            segments.get(location.segmentId()).liveBytes.addAndGet(location.recordLength());
+            dirty.set(true);
+        } catch (IOException ex) {
+            throw new FileStorageException("Could not append to segment storage", ex);
+        } finally {
+            writeLock.unlock();
+        }
+        try {
+            // Outside the write lock, so appends from other uploads can join the next force
+            awaitDurable(location);
+        } catch (IOException ex) {
+            throw new FileStorageException("Could not sync segment storage", ex);
+        }
+        return PATH_PREFIX + key;
+    }
+
+    // Read a file's content with a positional read from its segment
+    public byte[] read(String storagePath) {
+        String key = keyOf(storagePath);
+        // A concurrent compaction may retire the segment between lookup and read; the retry sees the new location
+        for (int attempt = 0; attempt < 3; attempt++) {
+            Location location = index.get(key);
+            if (location == null) {
+                throw new FileStorageException("File not found: " + storagePath);
+            }
+            Segment segment = segments.get(location.segmentId());
+            if (segment == null) {
+                continue;
+            }
+            try {
+                ByteBuffer buffer = ByteBuffer.allocate(location.dataLength());
+                readFully(segment.channel, buffer, location.dataOffset());
+                return buffer.array();
+            } catch (ClosedChannelException ex) {
+                // Retired by compaction; look the key up again
+            } catch (IOException ex) {
+                throw new FileStorageException("Could not read " + storagePath, ex);
+            }
+        }
+        throw new FileStorageException("File not found: " + storagePath);
+    }
+
+    public boolean exists(String storagePath) {
+        return index.containsKey(keyOf(storagePath));
+    }
+
+    // Mark a file as deleted by appending a tombstone
+    public void delete(String storagePath) {
+        String key = keyOf(storagePath);
+        Location tombstone;
+        writeLock.lock();
+        try {
+            Location location = index.remove(key);
+            if (location == null) {
+                return;
+            }
+            tombstone = append(TYPE_TOMBSTONE, key, tombstoneData(location));
+            Segment segment = segments.get(location.segmentId());
+            if (segment != null) {
+                segment.liveBytes.addAndGet(-location.recordLength());
+            }
+            dirty.set(true);
+        } catch (IOException ex) {
+            throw new FileStorageException("Could not delete " + storagePath, ex);
+        } finally {
+            writeLock.unlock();
+        }
+        try {
+            awaitDurable(tombstone);
+        } catch (IOException ex) {
+            throw new FileStorageException("Could not sync segment storage", ex);
+        }
+    }
+
+    // Compact sealed segments whose garbage ratio is above the threshold, then persist the index
+    @Scheduled(fixedDelayString = "${file.segment.compaction-interval-ms:600000}",
+            initialDelayString = "${file.segment.compaction-interval-ms:600000}")
+    public void compact() {
+        if (!enabled) {
+            return;
+        }
+        for (Segment segment : List.copyOf(segments.values())) {
+            if (segment == activeSegment || segment.size == 0) {
+                continue;
+            }
+            double garbageRatio = 1.0 - (double) segment.liveBytes.get() / segment.size;
+            if (garbageRatio >= compactionGarbageRatio) {
+                try {
+                    compactSegment(segment);
+                } catch (IOException ex) {
+                    log.warn("Compaction of segment {} failed", segment.id, ex);
+                }
+            }
+        }
+
+        if (dirty.getAndSet(false)) {
+            writeLock.lock();
+            try {
+                writeSnapshot();
+            } catch (IOException ex) {
+                dirty.set(true);
+                log.warn("Could not write segment index snapshot", ex);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    private void compactSegment(Segment segment) throws IOException {
+        long reclaimed = segment.size - segment.liveBytes.get();
+        scan(segment, 0, (type, key, location, data) -> {
+            writeLock.lock();
+            try {
+                if (type == TYPE_PUT && location.equals(index.get(key))) {
+                    Location moved = append(TYPE_PUT, key, data);
+                    index.put(key, moved);
+                    segments.get(moved.segmentId()).liveBytes.addAndGet(moved.recordLength());
+                } else if (type == TYPE_TOMBSTONE) {
+                    // Keep tombstones whose target still exists, or a rebuild would resurrect the file
+                    int targetSegment = ByteBuffer.wrap(data).getInt();
+                    if (targetSegment != segment.id && segments.containsKey(targetSegment)) {
+                        append(TYPE_TOMBSTONE, key, data);
+                    }
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        });
+
+        writeLock.lock();
+        try {
+            // The copies must be on disk before the only other copy of the data goes away
+            activeSegment.channel.force(false);
+            activeSegment.syncedSize = activeSegment.size;
+            segments.remove(segment.id);
+            segment.channel.close();
+            Files.deleteIfExists(segment.path);
+            dirty.set(true);
+        } finally {
+            writeLock.unlock();
+        }
+        log.info("Compacted segment {}, reclaimed {} bytes", segment.id, reclaimed);
+    }
+
+    // Group commit: one force covers every record appended before it started, so waiters behind it usually return at once
+    private void awaitDurable(Location location) throws IOException {
+        if (fsyncPolicy == FileStorageService.FsyncPolicy.NONE) {
+            return;
+        }
+        Segment segment = segments.get(location.segmentId());
+        long end = location.offset() + location.recordLength();
+        if (segment == null || segment.syncedSize >= end) {
+            return;
+        }
+        segment.syncLock.lock();
+        try {
+            if (segment.syncedSize >= end) {
+                return;
+            }
+            // size only moves past a record once it is fully written, so everything below it is safe to cover
+            long target = segment.size;
+            segment.channel.force(fsyncPolicy == FileStorageService.FsyncPolicy.ALL);
+            segment.syncedSize = target;
+        } finally {
+            segment.syncLock.unlock();
+        }
+    }
+
+    // Append one record to the active segment, rolling over to a new segment when it is full. Caller holds writeLock.
+    private Location append(byte type, String key, byte[] data) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int recordLength = RECORD_OVERHEAD + keyBytes.length + data.length;
+        if (activeSegment.size > 0 && activeSegment.size + recordLength > maxSegmentSize) {
+            activeSegment.channel.force(false);
+            activeSegment.syncedSize = activeSegment.size;
+            activeSegment = createSegment();
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(recordLength);
+        record.putInt(RECORD_MAGIC).put(type).putShort((short) keyBytes.length).put(keyBytes).putInt(data.length).put(data);
+        CRC32C crc = new CRC32C();
+        crc.update(record.array(), 4, recordLength - 8);
+        record.putInt((int) crc.getValue());
+        record.flip();
+
+        long offset = activeSegment.size;
+        long position = offset;
+        while (record.hasRemaining()) {
+            position += activeSegment.channel.write(record, position);
+        }
+        activeSegment.size = position;
+        return new Location(activeSegment.id, offset, recordLength, offset + HEADER_BYTES + keyBytes.length + 4, data.length);
+    }
+
+    private static byte[] tombstoneData(Location target) {
+        return ByteBuffer.allocate(12).putInt(target.segmentId()).putLong(target.offset()).array();
+    }
+
+    private Segment createSegment() throws IOException {
+        int id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        Path path = segmentDirectory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+        Segment segment = new Segment(id, path, FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE), 0);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private void openSegments() throws IOException {
+        try (Stream<Path> files = Files.list(segmentDirectory)) {
+            for (Path path : files.toList()) {
+                String name = path.getFileName().toString();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    int id = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    segments.put(id, new Segment(id, path, channel, channel.size()));
+                }
+            }
+        }
+    }
+
+    // Load the snapshot if it is consistent with the segments on disk, then replay everything appended after it
+    private void rebuildIndex() throws IOException {
+        Map<Integer, Long> scannedUpTo = readSnapshot();
+        if (scannedUpTo == null) {
+            index.clear();
+            scannedUpTo = Map.of();
+        }
+
+        for (Location location : index.values()) {
+            segments.get(location.segmentId()).liveBytes.addAndGet(location.recordLength());
+        }
+
+        for (Segment segment : segments.values()) {
+            long end = scan(segment, scannedUpTo.getOrDefault(segment.id, 0L), this::replay);
+            if (end < segment.size && segment.id == segments.lastKey()) {
+                // Torn write from a crash: drop the incomplete tail
+                log.warn("Truncating segment {} from {} to {} bytes", segment.id, segment.size, end);
+                segment.channel.truncate(end);
+                segment.size = end;
+            } else if (end < segment.size) {
+                log.warn("Segment {} has unreadable data after offset {}", segment.id, end);
+            }
+        }
+    }
+
+    private void replay(byte type, String key, Location location, byte[] data) {
+        if (type == TYPE_PUT) {
+            Location previous = index.put(key, location);
+            if (previous != null) {
+                segments.get(previous.segmentId()).liveBytes.addAndGet(-previous.recordLength());
+            }
+            segments.get(location.segmentId()).liveBytes.addAndGet(location.recordLength());
+        } else {
+            ByteBuffer target = ByteBuffer.wrap(data);
+            int targetSegment = target.getInt();
+            long targetOffset = target.getLong();
+            Location current = index.get(key);
+            if (current != null && current.segmentId() == targetSegment && current.offset() == targetOffset) {
+                index.remove(key);
+                segments.get(targetSegment).liveBytes.addAndGet(-current.recordLength());
+            }
+        }
+    }
+
+    private interface RecordVisitor {
+        void visit(byte type, String key, Location location, byte[] data) throws IOException;
+    }
+
+    // Walk the valid records of a segment from the given offset; returns the offset where valid data ends
+    private long scan(Segment segment, long from, RecordVisitor visitor) throws IOException {
+        long position = from;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (position + RECORD_OVERHEAD <= segment.size) {
+            header.clear();
+            readFully(segment.channel, header, position);
+            header.flip();
+            if (header.getInt() != RECORD_MAGIC) {
+                break;
+            }
+            byte type = header.get();
+            int keyLength = Short.toUnsignedInt(header.getShort());
+            if (position + RECORD_OVERHEAD + keyLength > segment.size) {
+                break;
+            }
+
+            ByteBuffer keyAndLength = ByteBuffer.allocate(keyLength + 4);
+            readFully(segment.channel, keyAndLength, position + HEADER_BYTES);
+            keyAndLength.flip();
+            byte[] keyBytes = new byte[keyLength];
+            keyAndLength.get(keyBytes);
+            int dataLength = keyAndLength.getInt();
+            int recordLength = RECORD_OVERHEAD + keyLength + dataLength;
+            if (dataLength < 0 || position + recordLength > segment.size) {
+                break;
+            }
+
+            long dataOffset = position + HEADER_BYTES + keyLength + 4;
+            ByteBuffer dataAndCrc = ByteBuffer.allocate(dataLength + 4);
+            readFully(segment.channel, dataAndCrc, dataOffset);
+            dataAndCrc.flip();
+            byte[] data = new byte[dataLength];
+            dataAndCrc.get(data);
+
+            CRC32C crc = new CRC32C();
+            crc.update(type);
+            crc.update(ByteBuffer.allocate(2).putShort((short) keyLength).array());
+            crc.update(keyBytes);
+            crc.update(ByteBuffer.allocate(4).putInt(dataLength).array());
+            crc.update(data);
+            if ((int) crc.getValue() != dataAndCrc.getInt()) {
+                break;
+            }
+
+            visitor.visit(type, new String(keyBytes, StandardCharsets.UTF_8),
+                    new Location(segment.id, position, recordLength, dataOffset, dataLength), data);
+            position += recordLength;
+        }
+        return position;
+    }
+
+    // Snapshot: per-segment scanned length followed by every index entry. Caller holds writeLock.
+    private void writeSnapshot() throws IOException {
+        Path temp = segmentDirectory.resolve(SNAPSHOT_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(segments.size());
+            for (Segment segment : segments.values()) {
+                segment.channel.force(false);
+                out.writeInt(segment.id);
+                out.writeLong(segment.size);
+            }
+            out.writeInt(index.size());
+            for (Map.Entry<String, Location> entry : index.entrySet()) {
+                Location location = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeInt(location.segmentId());
+                out.writeLong(location.offset());
+                out.writeInt(location.recordLength());
+                out.writeLong(location.dataOffset());
+                out.writeInt(location.dataLength());
+            }
+        }
+        Files.move(temp, segmentDirectory.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Returns the scanned length per segment, or null (with an empty index) when a full rescan is needed
+    private Map<Integer, Long> readSnapshot() {
+        Path snapshot = segmentDirectory.resolve(SNAPSHOT_FILE);
+        if (!Files.exists(snapshot)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                return null;
+            }
+            Map<Integer, Long> scannedUpTo = new ConcurrentHashMap<>();
+            int segmentCount = in.readInt();
+            for (int i = 0; i < segmentCount; i++) {
+                int id = in.readInt();
+                long length = in.readLong();
+                Segment segment = segments.get(id);
+                if (segment == null || segment.size < length) {
+                    return null;
+                }
+                scannedUpTo.put(id, length);
+            }
+
+            List<Map.Entry<String, Location>> entries = new ArrayList<>();
+            int entryCount = in.readInt();
+            for (int i = 0; i < entryCount; i++) {
+                String key = in.readUTF();
+                Location location = new Location(in.readInt(), in.readLong(), in.readInt(), in.readLong(), in.readInt());
+                if (!scannedUpTo.containsKey(location.segmentId())) {
+                    return null;
+                }
+                entries.add(Map.entry(key, location));
+            }
+            entries.forEach(entry -> index.put(entry.getKey(), entry.getValue()));
+            return scannedUpTo;
+        } catch (IOException ex) {
+            log.warn("Ignoring unreadable segment index snapshot, rebuilding from segments", ex);
+            return null;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of segment");
+            }
+            position += read;
+        }
+    }
+
+    private static String keyOf(String storagePath) {
+        return storagePath.substring(PATH_PREFIX.length());
+    }
+}
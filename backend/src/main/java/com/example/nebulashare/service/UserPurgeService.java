@@ -0,0 +1,292 @@
+package com.example.nebulashare.service;
+
+import com.example.nebulashare.model.User;
+import com.example.nebulashare.model.UserPurgeJob;
+import com.example.nebulashare.repository.FileDataRepository;
+import com.example.nebulashare.repository.UserPurgeJobRepository;
+import com.example.nebulashare.repository.UserRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Deletes a user and everything they own in the background.
+ *
+ * The account is disabled right away; a single worker thread then unlinks the stored files at a
+ * limited rate and removes their rows in small JDBC batches, so no statement holds locks for long.
+ * Progress lives in {@code user_purge_jobs}. A node works on a job only while it holds the job's lease,
+ * renewed after every batch, so several instances never purge the same user at once; a job whose owner
+ * stopped renewing is picked up by whichever node checks next. Every step is idempotent, so redoing the
+ * batch that was interrupted is harmless.
+ */
+@Service
+public class UserPurgeService {
+
+    private static final Logger log = LoggerFactory.getLogger(UserPurgeService.class);
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private FileDataRepository fileDataRepository;
+
+    @Autowired
+    private UserPurgeJobRepository userPurgeJobRepository;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private FileAccessStatsService fileAccessStatsService;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${user.purge.batch-size:500}")
+    private int batchSize;
+
+    @Value("${user.purge.files-per-second:200}")
+    private int filesPerSecond;
+
+    @Value("${user.purge.lease-ms:120000}")
+    private long leaseMillis;
+
+    private final String nodeId = UUID.randomUUID().toString();
+
+    // One job at a time keeps the extra disk and database load bounded
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "user-purge");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile boolean shuttingDown;
+
+    /**
+     * Published once a purge job is committed; the worker picks it up after the transaction completes.
+     */
+    public record PurgeRequested(Long userId) {
+    }
+
+    /**
+     * Disables the user and records a purge job; the worker starts once the surrounding transaction commits.
+     *
+     * @param user The user to delete.
+     * @return The new or restarted job.
+     */
+    @Transactional
+    public UserPurgeJob startPurge(User user) {
+        Optional<UserPurgeJob> existing = userPurgeJobRepository.findById(user.getId());
+        if (existing.isPresent() && existing.get().getStatus() == UserPurgeJob.Status.RUNNING) {
+            throw new RuntimeException("Deletion of this user is already in progress.");
+        }
+
+        user.setEnabled(false);
+        userRepository.save(user);
+
+        UserPurgeJob job = existing.orElseGet(UserPurgeJob::new);
+        job.setUserId(user.getId());
+        job.setStatus(UserPurgeJob.Status.RUNNING);
+        job.setTotalFiles(fileDataRepository.countByUser(user) + job.getDeletedFiles());
+        job.setUpdatedAt(LocalDateTime.now());
+        job.setFinishedAt(null);
+        job.setLastError(null);
+        job.setLeaseOwner(null);
+        job.setLeaseUntil(null);
+        UserPurgeJob saved = userPurgeJobRepository.save(job);
+
+        eventPublisher.publishEvent(new PurgeRequested(user.getId()));
+        return saved;
+    }
+
+    // Get the progress of a user's purge job
+    @Transactional(readOnly = true)
+    public Optional<UserPurgeJob> getJob(Long userId) {
+        return userPurgeJobRepository.findById(userId);
+    }
+
+    @TransactionalEventListener
+    public void onPurgeRequested(PurgeRequested event) {
+        worker.submit(() -> {
+            if (claim(event.userId())) {
+                runJob(event.userId());
+            }
+        });
+    }
+
+    // Periodically take over jobs nobody holds a live lease on, e.g. after a shutdown or crash
+    @EventListener(ApplicationReadyEvent.class)
+    public void startResuming() {
+        worker.scheduleWithFixedDelay(this::resumeJobs, 0, leaseMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void resumeJobs() {
+        try {
+            for (UserPurgeJob job : userPurgeJobRepository.findByStatus(UserPurgeJob.Status.RUNNING)) {
+                if (shuttingDown || !claim(job.getUserId())) {
+                    continue;
+                }
+                log.info("Resuming purge of user {} ({} of {} files done)", job.getUserId(), job.getDeletedFiles(), job.getTotalFiles());
+                runJob(job.getUserId());
+            }
+        } catch (RuntimeException e) {
+            log.warn("Could not resume purge jobs", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        shuttingDown = true;
+        worker.shutdown();
+        worker.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    private record StoredFile(String id, String storagePath) {
+    }
+
+    // Take the job if it is unowned or its owner's lease has run out
+    private boolean claim(Long userId) {
+        LocalDateTime now = LocalDateTime.now();
+        return jdbcTemplate.update("UPDATE user_purge_jobs SET lease_owner = ?, lease_until = ? "
+                        + "WHERE user_id = ? AND status = ? AND (lease_owner IS NULL OR lease_until < ?)",
+                nodeId, Timestamp.valueOf(leaseExpiry()), userId, UserPurgeJob.Status.RUNNING.name(), Timestamp.valueOf(now)) == 1;
+    }
+
+    // Record progress and extend the lease; false once another node has taken the job over
+    private boolean renew(Long userId, int deletedFiles) {
+        return jdbcTemplate.update("UPDATE user_purge_jobs SET deleted_files = deleted_files + ?, updated_at = ?, lease_until = ? "
+                        + "WHERE user_id = ? AND lease_owner = ?",
+                deletedFiles, Timestamp.valueOf(LocalDateTime.now()), Timestamp.valueOf(leaseExpiry()), userId, nodeId) == 1;
+    }
+
+    private void release(Long userId) {
+        jdbcTemplate.update("UPDATE user_purge_jobs SET lease_owner = NULL, lease_until = NULL WHERE user_id = ? AND lease_owner = ?",
+                userId, nodeId);
+    }
+
+    private LocalDateTime leaseExpiry() {
+        return LocalDateTime.now().plusNanos(leaseMillis * 1_000_000);
+    }
+
+    // Delete a user's rows from a table a batch at a time, so no single statement locks for long
+    private boolean deleteInBatches(String table, Long userId) {
+        while (!shuttingDown) {
+            int deleted = jdbcTemplate.update("DELETE FROM " + table + " WHERE user_id = ? LIMIT ?", userId, batchSize);
+            if (!renew(userId, 0)) {
+                return false;
+            }
+            if (deleted < batchSize) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Remove the users row and complete the job in one transaction, with anything a request authenticated before the
+    // account was disabled added since the sweep. The users row is locked first, so a later insert referencing it waits
+    // for the commit and then fails, rather than this delete failing on the foreign key. Returns the files still found,
+    // whose content goes once this commits
+    private List<StoredFile> deleteUser(Long userId) {
+        jdbcTemplate.queryForList("SELECT id FROM users WHERE id = ? FOR UPDATE", Long.class, userId);
+        List<StoredFile> remaining = jdbcTemplate.query("SELECT id, file_path FROM files WHERE user_id = ? FOR UPDATE",
+                (rs, rowNum) -> new StoredFile(rs.getString("id"), rs.getString("file_path")), userId);
+        if (!remaining.isEmpty()) {
+            log.info("Removing {} files added to user {} during the purge", remaining.size(), userId);
+            fileAccessStatsService.forgetAll(remaining.stream().map(StoredFile::id).toList());
+            jdbcTemplate.update("DELETE FROM files WHERE user_id = ?", userId);
+        }
+        jdbcTemplate.update("DELETE FROM file_changes WHERE user_id = ?", userId);
+        jdbcTemplate.update("DELETE FROM folders WHERE user_id = ?", userId);
+        jdbcTemplate.update("DELETE FROM users WHERE id = ?", userId);
+        jdbcTemplate.update("UPDATE user_purge_jobs SET status = ?, updated_at = ?, finished_at = ?, deleted_files = deleted_files + ?, "
+                        + "lease_owner = NULL, lease_until = NULL WHERE user_id = ? AND lease_owner = ?",
+                UserPurgeJob.Status.COMPLETED.name(), Timestamp.valueOf(LocalDateTime.now()), Timestamp.valueOf(LocalDateTime.now()),
+                remaining.size(), userId, nodeId);
+        return remaining;
+    }
+
+    private void runJob(Long userId) {
+        try {
+            long intervalNanos = filesPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / filesPerSecond : 0;
+            long nextSlot = System.nanoTime();
+
+            while (!shuttingDown) {
+                List<StoredFile> batch = jdbcTemplate.query(
+                        "SELECT id, file_path FROM files WHERE user_id = ? ORDER BY id LIMIT ?",
+                        (rs, rowNum) -> new StoredFile(rs.getString("id"), rs.getString("file_path")),
+                        userId, batchSize);
+                if (batch.isEmpty()) {
+                    break;
+                }
+
+                for (StoredFile file : batch) {
+                    // Pace unlinks so a large account does not saturate the disk
+                    nextSlot = Math.max(nextSlot + intervalNanos, System.nanoTime());
+                    LockSupport.parkNanos(nextSlot - System.nanoTime());
+                    try {
+                        fileStorageService.deleteStoredFile(file.storagePath());
+                    } catch (IOException e) {
+                        log.warn("Could not remove stored file {} of user {}: {}", file.id(), userId, e.getMessage());
+                    }
+                }
+
+                // Also drops in-memory download counters, which the next stats flush would otherwise write back
+                fileAccessStatsService.forgetAll(batch.stream().map(StoredFile::id).toList());
+                jdbcTemplate.batchUpdate("DELETE FROM files WHERE id = ?", batch.stream().map(file -> new Object[]{file.id()}).toList());
+                if (!renew(userId, batch.size())) {
+                    log.warn("Purge of user {} was taken over by another node", userId);
+                    return;
+                }
+            }
+
+            // The files that referenced the folders are gone; folders in turn reference the users row, so they go first
+            if (shuttingDown || !deleteInBatches("file_changes", userId) || !deleteInBatches("folders", userId)) {
+                release(userId);
+                return;
+            }
+            List<StoredFile> stragglers = transactionTemplate.execute(status -> deleteUser(userId));
+            for (StoredFile file : stragglers) {
+                try {
+                    fileStorageService.deleteStoredFile(file.storagePath());
+                } catch (IOException e) {
+                    log.warn("Could not remove stored file {} of user {}: {}", file.id(), userId, e.getMessage());
+                }
+            }
+            log.info("Purged user {}", userId);
+        } catch (RuntimeException e) {
+            log.error("Purge of user {} failed", userId, e);
+            String message = String.valueOf(e.getMessage());
+            jdbcTemplate.update("UPDATE user_purge_jobs SET status = ?, updated_at = ?, last_error = ?, lease_owner = NULL, lease_until = NULL "
+                            + "WHERE user_id = ? AND lease_owner = ?",
+                    UserPurgeJob.Status.FAILED.name(), Timestamp.valueOf(LocalDateTime.now()),
+                    message.substring(0, Math.min(message.length(), 1024)), userId, nodeId);
+        }
+    }
+}
@@ -2,9 +2,12 @@ package com.example.nebulashare.service;
 
 import com.example.nebulashare.model.User;
 import com.example.nebulashare.repository.UserRepository;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.util.Optional;
 
@@ -17,6 +20,21 @@ public class UserService {
     @Autowired
     private PasswordEncoder passwordEncoder;
 
+    @Autowired
+    private MailOutboxService mailOutboxService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private TransactionTemplate replicaTransaction;
+
+    @PostConstruct
+    void init() {
+        replicaTransaction = new TransactionTemplate(transactionTemplate.getTransactionManager());
+        replicaTransaction.setReadOnly(true);
+    }
+
+    @Transactional
     public User registerUser(User user) {
         if (userRepository.findByEmail(user.getEmail()).isPresent()) {
             throw new RuntimeException("Email already exists");
@@ -27,14 +45,30 @@ public class UserService {
 
         user.setPassword(passwordEncoder.encode(user.getPassword()));
         user.setRole("USER");
-        return userRepository.save(user);
+        User saved = userRepository.save(user);
+        mailOutboxService.enqueue(saved.getEmail(), "Welcome to NebulaShare",
+                "Hi " + saved.getUsername() + ",\n\nYour NebulaShare account is ready. Sign in with " + saved.getEmail()
+                        + " to start uploading and sharing files.", null);
+        return saved;
     }
 
+    /**
+     * Looks a user up on a read replica, retrying on the primary for a user the replica has not caught up with yet,
+     * so someone who signs up and immediately uses the account is still found.
+     */
     public Optional<User> findByEmail(String email) {
-        return userRepository.findByEmail(email);
+        // Self-invocation skips the proxy, so open both transactions explicitly
+        return replicaTransaction.execute(status -> userRepository.findByEmail(email))
+                .or(() -> findByEmailOnPrimary(email));
+    }
+
+    // Read-your-writes lookup: always served by the primary
+    public Optional<User> findByEmailOnPrimary(String email) {
+        return transactionTemplate.execute(status -> userRepository.findByEmail(email));
     }
 
     // ⭐ Restore Update Profile Function
+    @Transactional
     public User updateUserProfile(String currentUsername, String newUsername, String newEmail) {
         User user = userRepository.findByUsername(currentUsername)
                 .orElseThrow(() -> new RuntimeException("User not found"));
@@ -55,6 +89,7 @@ public class UserService {
     }
 
     // ⭐ Restore Password Change Function
+    @Transactional
     public void changeUserPassword(String username, String oldPassword, String newPassword) {
         User user = userRepository.findByUsername(username)
                 .orElseThrow(() -> new RuntimeException("User not found"));
@@ -0,0 +1,4 @@
+-- Identifies the dispatcher claim holding a message (MailOutboxService). While it is set, next_attempt_at is when
+-- the lease runs out; the claim renews it before each connection and only marks rows it still holds.
+
+ALTER TABLE mail_outbox ADD COLUMN lease_owner VARCHAR(64);
@@ -0,0 +1,30 @@
+-- Initial schema, matching what hibernate.ddl-auto=update used to create.
+-- Existing databases are baselined at this version (spring.flyway.baseline-on-migrate).
+
+CREATE TABLE users (
+    id         BIGINT       NOT NULL AUTO_INCREMENT,
+    username   VARCHAR(255) NOT NULL,
+    email      VARCHAR(255) NOT NULL,
+    password   VARCHAR(255) NOT NULL,
+    role       VARCHAR(255) NOT NULL,
+    created_at DATETIME(6),
+    updated_at DATETIME(6),
+    PRIMARY KEY (id),
+    CONSTRAINT uk_users_username UNIQUE (username),
+    CONSTRAINT uk_users_email UNIQUE (email)
+);
+
+CREATE TABLE files (
+    id              VARCHAR(255)  NOT NULL,
+    file_name       VARCHAR(255)  NOT NULL,
+    file_type       VARCHAR(255)  NOT NULL,
+    file_size       BIGINT        NOT NULL,
+    file_path       VARCHAR(1024) NOT NULL,
+    user_id         BIGINT        NOT NULL,
+    created_at      DATETIME(6),
+    shareable_link  VARCHAR(255),
+    link_type       ENUM('PERMANENT', 'ONE_TIME'),
+    link_expires_at DATETIME(6),
+    PRIMARY KEY (id),
+    CONSTRAINT fk_files_user FOREIGN KEY (user_id) REFERENCES users (id)
+);
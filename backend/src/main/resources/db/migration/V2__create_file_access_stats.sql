@@ -0,0 +1,12 @@
+-- Per-file download statistics, written in batches by FileAccessStatsService.
+-- No foreign key: rows are flushed asynchronously and may briefly outlive their file.
+
+CREATE TABLE file_access_stats (
+    file_id          VARCHAR(255) NOT NULL,
+    download_count   BIGINT       NOT NULL,
+    bytes_served     BIGINT       NOT NULL,
+    last_accessed_at DATETIME(6),
+    PRIMARY KEY (file_id)
+);
+
+CREATE INDEX idx_file_access_stats_downloads ON file_access_stats (download_count);
@@ -0,0 +1,3 @@
+-- Marks files stored with chunked AES-GCM encryption (FileEncryptionService).
+
+ALTER TABLE files ADD COLUMN encrypted BOOLEAN NOT NULL DEFAULT FALSE;
@@ -0,0 +1,17 @@
+-- Users are disabled first and purged in the background by UserPurgeService.
+
+ALTER TABLE users ADD COLUMN enabled BOOLEAN NOT NULL DEFAULT TRUE;
+
+CREATE TABLE user_purge_jobs (
+    user_id       BIGINT       NOT NULL,
+    status        ENUM('RUNNING', 'COMPLETED', 'FAILED') NOT NULL,
+    total_files   BIGINT       NOT NULL,
+    deleted_files BIGINT       NOT NULL,
+    started_at    DATETIME(6),
+    updated_at    DATETIME(6),
+    finished_at   DATETIME(6),
+    last_error    VARCHAR(1024),
+    PRIMARY KEY (user_id)
+);
+
+CREATE INDEX idx_files_user ON files (user_id, id);
@@ -0,0 +1,18 @@
+-- Per-user change feed for incremental client sync (ChangeFeedService).
+-- users.change_seq is the last sequence number handed out for that user.
+
+ALTER TABLE users ADD COLUMN change_seq BIGINT NOT NULL DEFAULT 0;
+
+CREATE TABLE file_changes (
+    id          BIGINT       NOT NULL AUTO_INCREMENT,
+    user_id     BIGINT       NOT NULL,
+    seq         BIGINT       NOT NULL,
+    file_id     VARCHAR(255) NOT NULL,
+    change_type ENUM('CREATED', 'UPDATED', 'DELETED') NOT NULL,
+    file_name   VARCHAR(255),
+    file_type   VARCHAR(255),
+    file_size   BIGINT,
+    created_at  DATETIME(6),
+    PRIMARY KEY (id),
+    CONSTRAINT uk_file_changes_user_seq UNIQUE (user_id, seq)
+);
@@ -0,0 +1,3 @@
+-- SHA-256 of the uploaded content, computed during ingestion. Files stored before this column have none.
+
+ALTER TABLE files ADD COLUMN checksum VARCHAR(64);
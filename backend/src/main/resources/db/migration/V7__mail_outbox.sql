@@ -0,0 +1,19 @@
+-- Outgoing mail is queued here in the sender's transaction and delivered by MailOutboxService.
+
+CREATE TABLE mail_outbox (
+    id              BIGINT       NOT NULL AUTO_INCREMENT,
+    recipient       VARCHAR(255) NOT NULL,
+    subject         VARCHAR(255) NOT NULL,
+    body            TEXT         NOT NULL,
+    coalesce_key    VARCHAR(255),
+    status          ENUM('PENDING', 'SENT', 'FAILED') NOT NULL,
+    attempts        INT          NOT NULL,
+    next_attempt_at DATETIME(6)  NOT NULL,
+    created_at      DATETIME(6),
+    sent_at         DATETIME(6),
+    last_error      VARCHAR(1024),
+    PRIMARY KEY (id)
+);
+
+CREATE INDEX idx_mail_outbox_due ON mail_outbox (status, next_attempt_at);
+CREATE INDEX idx_mail_outbox_coalesce ON mail_outbox (coalesce_key);
@@ -0,0 +1,25 @@
+-- Folder tree stored as a materialized path of folder ids ("/3/17/42/", including the folder itself),
+-- so a subtree is a single prefix range and moving it rewrites only the moved folders' paths.
+-- total_size and file_count roll up everything below a folder (FolderService).
+
+CREATE TABLE folders (
+    id         BIGINT       NOT NULL AUTO_INCREMENT,
+    user_id    BIGINT       NOT NULL,
+    parent_id  BIGINT,
+    name       VARCHAR(255) NOT NULL,
+    path       VARCHAR(760) NOT NULL,
+    total_size BIGINT       NOT NULL,
+    file_count BIGINT       NOT NULL,
+    created_at DATETIME(6),
+    PRIMARY KEY (id),
+    CONSTRAINT fk_folders_user FOREIGN KEY (user_id) REFERENCES users (id)
+);
+
+CREATE INDEX idx_folders_user_path ON folders (user_id, path);
+CREATE INDEX idx_folders_parent ON folders (user_id, parent_id, name);
+
+ALTER TABLE files ADD COLUMN folder_id BIGINT;
+ALTER TABLE files ADD CONSTRAINT fk_files_folder FOREIGN KEY (folder_id) REFERENCES folders (id);
+CREATE INDEX idx_files_user_folder ON files (user_id, folder_id);
+
+ALTER TABLE file_changes ADD COLUMN folder_id BIGINT;
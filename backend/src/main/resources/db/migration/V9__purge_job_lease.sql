@@ -0,0 +1,5 @@
+-- Purge jobs are leased to one node at a time (UserPurgeService), so several instances can share the table
+-- without purging the same user twice. The owner renews the lease after every batch.
+
+ALTER TABLE user_purge_jobs ADD COLUMN lease_owner VARCHAR(64);
+ALTER TABLE user_purge_jobs ADD COLUMN lease_until DATETIME(6);
@@ -0,0 +1,37 @@
+package com.example.nebulashare;
+
+import com.example.nebulashare.model.User;
+import com.example.nebulashare.service.UserService;
+
+/**
+ * Test users. All tests share one database per JVM, so every caller picks a name no other test uses.
+ */
+public final class TestUsers {
+
+    public static final String PASSWORD = "secret";
+
+    private TestUsers() {
+    }
+
+    /**
+     * A user that has not been saved yet, with email {@code <name>@nebulashare.test}.
+     */
+    public static User newUser(String name) {
+        User user = new User();
+        user.setUsername(name);
+        user.setEmail(email(name));
+        user.setPassword(PASSWORD);
+        return user;
+    }
+
+    /**
+     * Signs a user up the way the API does, welcome mail included.
+     */
+    public static User register(UserService userService, String name) {
+        return userService.registerUser(newUser(name));
+    }
+
+    public static String email(String name) {
+        return name + "@nebulashare.test";
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.nebulashare.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdaptiveConcurrencyLimiterTests {
+
+    private static final long BASELINE_RTT = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private AdaptiveConcurrencyLimiter limiter(int initialLimit, int minLimit, int maxLimit) {
+        return new AdaptiveConcurrencyLimiter("test", initialLimit, minLimit, maxLimit, 1.5, clock::get);
+    }
+
+    // Runs one full sampling window with the given number of concurrent requests
+    private void window(AdaptiveConcurrencyLimiter limiter, int concurrency, long rttNanos, boolean dropped) {
+        for (int i = 0; i < concurrency; i++) {
+            assertTrue(limiter.tryAcquire());
+        }
+        for (int i = 0; i < concurrency - 1; i++) {
+            limiter.release(rttNanos, false);
+        }
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+        limiter.release(rttNanos, dropped);
+    }
+
+    @Test
+    void rejectsRequestsOverTheLimitUntilASlotIsReleased() {
+        AdaptiveConcurrencyLimiter limiter = limiter(2, 1, 10);
+
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        assertEquals(2, limiter.getInFlight());
+
+        limiter.release(BASELINE_RTT, false);
+        assertTrue(limiter.tryAcquire());
+    }
+
+    @Test
+    void growsWhileLatencyStaysAtTheBaseline() {
+        AdaptiveConcurrencyLimiter limiter = limiter(20, 4, 200);
+        window(limiter, 10, BASELINE_RTT, false);
+        assertEquals(20, limiter.getLimit());
+
+        for (int i = 0; i < 5; i++) {
+            window(limiter, limiter.getLimit(), BASELINE_RTT, false);
+        }
+        assertTrue(limiter.getLimit() > 20, "limit " + limiter.getLimit());
+    }
+
+    @Test
+    void shrinksWhenLatencyRisesAboveTheBaseline() {
+        AdaptiveConcurrencyLimiter limiter = limiter(20, 4, 200);
+        window(limiter, 10, BASELINE_RTT, false);
+
+        window(limiter, 20, BASELINE_RTT * 10, false);
+        assertTrue(limiter.getLimit() < 20, "limit " + limiter.getLimit());
+    }
+
+    @Test
+    void lightlyLoadedWindowsDoNotRaiseTheLimit() {
+        AdaptiveConcurrencyLimiter limiter = limiter(40, 4, 200);
+        for (int i = 0; i < 5; i++) {
+            window(limiter, 10, BASELINE_RTT, false);
+        }
+        assertEquals(40, limiter.getLimit());
+    }
+
+    @Test
+    void dropCutsTheLimitByATenth() {
+        AdaptiveConcurrencyLimiter limiter = limiter(20, 4, 200);
+        window(limiter, 1, BASELINE_RTT, true);
+        assertEquals(18, limiter.getLimit());
+    }
+
+    @Test
+    void staysWithinItsBounds() {
+        AdaptiveConcurrencyLimiter limiter = limiter(20, 4, 30);
+        window(limiter, 10, BASELINE_RTT, false);
+        for (int i = 0; i < 50; i++) {
+            window(limiter, limiter.getLimit(), BASELINE_RTT, false);
+        }
+        assertEquals(30, limiter.getLimit());
+
+        for (int i = 0; i < 50; i++) {
+            window(limiter, 1, BASELINE_RTT, true);
+        }
+        assertEquals(4, limiter.getLimit());
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.nebulashare.config;
+
+import com.example.nebulashare.exception.FileStorageException;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.CannotCreateTransactionException;
+
+import java.io.IOException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConcurrencyLimitFilterTests {
+
+    @Test
+    void capacityFailuresCountAsDrops() {
+        assertTrue(ConcurrencyLimitFilter.isOverload(new QueryTimeoutException("slow query"), 500));
+        assertTrue(ConcurrencyLimitFilter.isOverload(new CannotCreateTransactionException("pool exhausted"), 500));
+        assertTrue(ConcurrencyLimitFilter.isOverload(
+                new CannotGetJdbcConnectionException("no connection", new SQLTransientConnectionException()), 500));
+        assertTrue(ConcurrencyLimitFilter.isOverload(
+                new IllegalStateException("wrapped", new RejectedExecutionException()), 500));
+        assertTrue(ConcurrencyLimitFilter.isOverload(null, 503));
+        assertTrue(ConcurrencyLimitFilter.isOverload(null, 504));
+    }
+
+    @Test
+    void clientAndApplicationErrorsAreNotDrops() {
+        assertFalse(ConcurrencyLimitFilter.isOverload(null, 200));
+        assertFalse(ConcurrencyLimitFilter.isOverload(null, 400));
+        assertFalse(ConcurrencyLimitFilter.isOverload(null, 500));
+        assertFalse(ConcurrencyLimitFilter.isOverload(new IOException("Broken pipe"), 200));
+        assertFalse(ConcurrencyLimitFilter.isOverload(new FileStorageException("File not found"), 500));
+        assertFalse(ConcurrencyLimitFilter.isOverload(new IllegalArgumentException("bad input"), 500));
+    }
+
+    @Test
+    void requestsOverTheLimitAreShedWithRetryAfter() throws Exception {
+        ConcurrencyLimitFilter filter = newFilter(2, 7);
+        AdaptiveConcurrencyLimiter uploads = filter.getLimiters().get(0);
+        assertTrue(uploads.tryAcquire());
+        assertTrue(uploads.tryAcquire());
+
+        MockHttpServletResponse shed = new MockHttpServletResponse();
+        MockFilterChain shedChain = new MockFilterChain();
+        filter.doFilter(new MockHttpServletRequest("POST", "/api/files/upload"), shed, shedChain);
+
+        assertEquals(503, shed.getStatus());
+        assertEquals("7", shed.getHeader("Retry-After"));
+        assertTrue(shed.getContentAsString().contains("Server is busy"));
+        assertNull(shedChain.getRequest());
+
+        // Other pools are unaffected, and a freed slot lets the next upload through
+        MockFilterChain downloadChain = new MockFilterChain();
+        filter.doFilter(new MockHttpServletRequest("GET", "/api/files/download/1"), new MockHttpServletResponse(), downloadChain);
+        assertNotNull(downloadChain.getRequest());
+
+        uploads.release(0, false);
+        MockHttpServletResponse admitted = new MockHttpServletResponse();
+        MockFilterChain admittedChain = new MockFilterChain();
+        filter.doFilter(new MockHttpServletRequest("POST", "/api/files/upload"), admitted, admittedChain);
+        assertEquals(200, admitted.getStatus());
+        assertNotNull(admittedChain.getRequest());
+        assertEquals(1, uploads.getInFlight());
+    }
+
+    // A filter whose pools are pinned at a fixed limit, as Spring would configure it from properties
+    private static ConcurrencyLimitFilter newFilter(int limit, int retryAfterSeconds) {
+        ConcurrencyLimitFilter filter = new ConcurrencyLimitFilter();
+        Map<String, Object> settings = Map.of("enabled", true, "minLimit", limit, "rttTolerance", 1.5,
+                "retryAfterSeconds", retryAfterSeconds,
+                "uploadInitialLimit", limit, "uploadMaxLimit", limit,
+                "downloadInitialLimit", limit, "downloadMaxLimit", limit,
+                "authInitialLimit", limit, "authMaxLimit", limit);
+        settings.forEach((field, value) -> ReflectionTestUtils.setField(filter, field, value));
+        filter.init();
+        return filter;
+    }
+}
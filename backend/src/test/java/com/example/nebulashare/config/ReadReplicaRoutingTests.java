@@ -0,0 +1,112 @@
+package com.example.nebulashare.config;
+
+import com.example.nebulashare.TestUsers;
+import com.example.nebulashare.model.FileData;
+import com.example.nebulashare.model.User;
+import com.example.nebulashare.repository.UserRepository;
+import com.example.nebulashare.service.CustomUserDetailsService;
+import com.example.nebulashare.service.FileStorageService;
+import com.example.nebulashare.service.UserService;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+@ActiveProfiles("test")
+class ReadReplicaRoutingTests {
+
+    private static final String REPLICA_URL = "jdbc:h2:mem:replica;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private CustomUserDetailsService userDetailsService;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private ReplicaRoutingDataSource replicaRoutingDataSource;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @BeforeAll
+    static void migrateReplica() {
+        Flyway.configure().dataSource(REPLICA_URL, "sa", "").load().migrate();
+    }
+
+    @Test
+    void readOnlyLookupsGoToReplicaAndWritesToPrimary() {
+        replicaRoutingDataSource.checkReplicas();
+        assertTrue(replicaRoutingDataSource.hasHealthyReplica());
+
+        userRepository.save(TestUsers.newUser("written"));
+        new JdbcTemplate(new DriverManagerDataSource(REPLICA_URL, "sa", "")).update(
+                "INSERT INTO users (username, email, password, role) VALUES ('replicated', 'replicated@example.com', 'x', 'USER')");
+
+        // The write landed on the primary only, the hand-inserted row exists on the replica only
+        assertTrue(findOnReplica("written@nebulashare.test").isEmpty());
+        assertTrue(userService.findByEmailOnPrimary("written@nebulashare.test").isPresent());
+        assertTrue(findOnReplica("replicated@example.com").isPresent());
+        assertTrue(userService.findByEmailOnPrimary("replicated@example.com").isEmpty());
+
+        // Lookups fall back to the primary for users the replica has not caught up with
+        assertTrue(userService.findByEmail("written@nebulashare.test").isPresent());
+        assertTrue(userService.findByEmail("replicated@example.com").isPresent());
+        assertEquals("written@nebulashare.test", userDetailsService.loadUserByUsername("written@nebulashare.test").getUsername());
+    }
+
+    @Test
+    void securityAndOwnershipLookupsSeeThePrimary() throws Exception {
+        replicaRoutingDataSource.checkReplicas();
+        User owner = userRepository.save(TestUsers.newUser("owner"));
+        User disabled = TestUsers.newUser("disabled");
+        disabled.setEnabled(false);
+        userRepository.save(disabled);
+        JdbcTemplate replica = new JdbcTemplate(new DriverManagerDataSource(REPLICA_URL, "sa", ""));
+        replica.update("INSERT INTO users (username, email, password, role, enabled) "
+                + "VALUES ('disabled', 'disabled@nebulashare.test', 'x', 'USER', TRUE)");
+        replica.update("INSERT INTO users (username, email, password, role) VALUES ('stale', 'stale@example.com', 'x', 'USER')");
+
+        // Authentication never trusts a replica that has not seen the account being disabled or removed
+        assertFalse(userDetailsService.loadUserByUsername("disabled@nebulashare.test").isEnabled());
+        assertThrows(UsernameNotFoundException.class, () -> userDetailsService.loadUserByUsername("stale@example.com"));
+
+        // A file uploaded a moment ago is found although only the primary has it
+        FileData uploaded = fileStorageService.storeFile(new ByteArrayInputStream("fresh".getBytes(StandardCharsets.UTF_8)),
+                "fresh.txt", "text/plain", null, owner);
+        assertEquals(uploaded.getId(), fileStorageService.getOwnedFile(uploaded.getId(), owner).getId());
+        assertTrue(fileStorageService.getFile(uploaded.getId()).isPresent());
+        assertArrayEquals("fresh".getBytes(StandardCharsets.UTF_8),
+                fileStorageService.loadFileAsResource(uploaded.getId(), owner).getContentAsByteArray());
+    }
+
+    private Optional<User> findOnReplica(String email) {
+        TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+        return readOnly.execute(status -> userRepository.findByEmail(email));
+    }
+}
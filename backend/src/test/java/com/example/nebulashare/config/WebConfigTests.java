@@ -0,0 +1,34 @@
+package com.example.nebulashare.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.web.servlet.MultipartProperties;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.multipart.MultipartResolver;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WebConfigTests {
+
+    @Test
+    void streamedUploadsAreLeftForTheController() {
+        MultipartResolver resolver = new WebConfig().multipartResolver(new MultipartProperties(), true);
+
+        assertFalse(resolver.isMultipart(multipartPost("/api/files/upload")));
+        assertTrue(resolver.isMultipart(multipartPost("/api/files/upload/other")));
+        assertTrue(resolver.isMultipart(multipartPost("/api/folders")));
+    }
+
+    @Test
+    void withStreamingOffEveryMultipartRequestIsParsed() {
+        MultipartResolver resolver = new WebConfig().multipartResolver(new MultipartProperties(), false);
+
+        assertTrue(resolver.isMultipart(multipartPost("/api/files/upload")));
+    }
+
+    private static MockHttpServletRequest multipartPost(String path) {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", path);
+        request.setContentType("multipart/form-data; boundary=test");
+        return request;
+    }
+}
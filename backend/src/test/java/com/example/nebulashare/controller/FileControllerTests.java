@@ -0,0 +1,176 @@
+package com.example.nebulashare.controller;
+
+import com.example.nebulashare.TestUsers;
+import com.example.nebulashare.model.Folder;
+import com.example.nebulashare.model.User;
+import com.example.nebulashare.service.FileStorageService;
+import com.example.nebulashare.service.FolderService;
+import com.example.nebulashare.service.UserService;
+import com.jayway.jsonpath.JsonPath;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedStatic;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = {
+        "db.replica.urls=",
+        "limiter.retry-after-seconds=3",
+        "spring.servlet.multipart.max-file-size=4KB",
+        "file.segment.enabled=false",
+        "file.upload.fsync=DATA"
+})
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+class FileControllerTests {
+
+    private static final String BOUNDARY = "nebula-test-boundary";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private FolderService folderService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @MockitoSpyBean
+    private FileStorageService fileStorageService;
+
+    @Test
+    void streamedUploadIsStoredWithItsChecksumAndSynced() throws Exception {
+        User user = TestUsers.register(userService, "upload-stream");
+        Folder folder = folderService.createFolder("docs", null, user);
+        String content = "streamed content\n".repeat(100);
+
+        List<FileChannel> channels = new ArrayList<>();
+        MvcResult result;
+        try (MockedStatic<FileChannel> opened = mockStatic(FileChannel.class, CALLS_REAL_METHODS)) {
+            opened.when(() -> FileChannel.open(any(Path.class), any(OpenOption[].class))).thenAnswer(invocation -> {
+                FileChannel channel = spy((FileChannel) invocation.callRealMethod());
+                channels.add(channel);
+                return channel;
+            });
+            result = mockMvc.perform(upload(user, folderIdPart(folder.getId()), filePart("notes.txt", content)))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.fileName").value("notes.txt"))
+                    .andExpect(jsonPath("$.fileSize").value(content.length()))
+                    .andExpect(jsonPath("$.folderId").value(folder.getId()))
+                    .andExpect(jsonPath("$.checksum").value(
+                            HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8)))))
+                    .andReturn();
+        }
+
+        // The multipart resolver left the body alone, so it went through the streaming path, and file.upload.fsync=DATA
+        // forced the content but not the metadata before the row was committed
+        verify(fileStorageService).storeFile(any(InputStream.class), eq("notes.txt"), eq("text/plain"), eq(folder.getId()), any());
+        verify(fileStorageService, never()).storeFile(any(MultipartFile.class), any(), any());
+        assertEquals(1, channels.size());
+        verify(channels.get(0)).force(false);
+
+        String fileId = JsonPath.read(result.getResponse().getContentAsString(), "$.id");
+        try (InputStream in = fileStorageService.loadFileAsResource(fileId, user).getInputStream()) {
+            assertEquals(content, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void oversizedUploadIsRejected() throws Exception {
+        User user = TestUsers.register(userService, "upload-oversized");
+
+        mockMvc.perform(upload(user, filePart("big.txt", "x".repeat(5 * 1024))))
+                .andExpect(status().isPayloadTooLarge())
+                .andExpect(jsonPath("$.message").value(containsString("exceeds its maximum permitted size of 4096 bytes")));
+
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM files WHERE user_id = ?", Integer.class, user.getId()));
+    }
+
+    @Test
+    void folderIdAfterTheFilePartIsRejected() throws Exception {
+        User user = TestUsers.register(userService, "upload-late-folder");
+        Folder folder = folderService.createFolder("docs", null, user);
+
+        mockMvc.perform(upload(user, filePart("late.txt", "late content"), folderIdPart(folder.getId())))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("Could not upload the file: Field 'folderId' must come before the 'file' part."));
+
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM files WHERE user_id = ?", Integer.class, user.getId()));
+    }
+
+    @Test
+    void capacityFailuresDuringUploadAreRetryable() throws Exception {
+        User user = TestUsers.register(userService, "upload-busy");
+        doThrow(new CannotCreateTransactionException("Connection pool exhausted"))
+                .doThrow(new QueryTimeoutException("Statement timed out"))
+                .when(fileStorageService).storeFile(any(InputStream.class), eq("busy.txt"), any(), any(), any());
+
+        for (int attempt = 0; attempt < 2; attempt++) {
+            mockMvc.perform(upload(user, filePart("busy.txt", "content")))
+                    .andExpect(status().isServiceUnavailable())
+                    .andExpect(header().string("Retry-After", "3"))
+                    .andExpect(jsonPath("$.message").value("Server is busy, please retry shortly."));
+        }
+    }
+
+    // A multipart body sent as raw bytes, the way a browser streams it, rather than as a pre-parsed request
+    private MockHttpServletRequestBuilder upload(User user, String... parts) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (String part : parts) {
+            body.writeBytes(("--" + BOUNDARY + "\r\n" + part + "\r\n").getBytes(StandardCharsets.UTF_8));
+        }
+        body.writeBytes(("--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        return post("/api/files/upload")
+                .with(user(user.getEmail()))
+                .contentType("multipart/form-data; boundary=" + BOUNDARY)
+                .content(body.toByteArray());
+    }
+
+    private static String folderIdPart(Long folderId) {
+        return "Content-Disposition: form-data; name=\"folderId\"\r\n\r\n" + folderId;
+    }
+
+    private static String filePart(String fileName, String content) {
+        return "Content-Disposition: form-data; name=\"file\"; filename=\"" + fileName + "\"\r\n"
+                + "Content-Type: text/plain\r\n\r\n" + content;
+    }
+}
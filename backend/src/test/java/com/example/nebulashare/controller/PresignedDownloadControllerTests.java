@@ -0,0 +1,100 @@
+package com.example.nebulashare.controller;
+
+import com.example.nebulashare.TestUsers;
+import com.example.nebulashare.model.FileData;
+import com.example.nebulashare.model.User;
+import com.example.nebulashare.service.FileAccessStatsService;
+import com.example.nebulashare.service.FileStorageService;
+import com.example.nebulashare.service.PresignedUrlService;
+import com.example.nebulashare.service.UserService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = "db.replica.urls=")
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+class PresignedDownloadControllerTests {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private PresignedUrlService presignedUrlService;
+
+    @Autowired
+    private FileAccessStatsService fileAccessStatsService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void downloadIsServedFromTheTokenAlone() throws Exception {
+        User user = TestUsers.register(userService, "presign");
+
+        byte[] body = "presigned content".getBytes(StandardCharsets.UTF_8);
+        FileData fileData = fileStorageService.storeFile(new ByteArrayInputStream(body), "résumé \"v2\".txt", "text/plain", null, user);
+        String token = presignedUrlService.createToken(fileData, Instant.now().plusSeconds(60));
+
+        // With the row gone, only the token can tell the route where the content lives
+        jdbcTemplate.update("DELETE FROM file_changes WHERE file_id = ?", fileData.getId());
+        jdbcTemplate.update("DELETE FROM files WHERE id = ?", fileData.getId());
+
+        mockMvc.perform(get("/api/dl/{token}", token))
+                .andExpect(status().isOk())
+                .andExpect(content().bytes(body))
+                .andExpect(header().string("Content-Disposition",
+                        "attachment; filename=\"=?UTF-8?Q?r=C3=A9sum=C3=A9_=22v2=22.txt?=\"; filename*=UTF-8''r%C3%A9sum%C3%A9%20%22v2%22.txt"));
+    }
+
+    @Test
+    void statisticsCountServedBytesAndOnlyFirstRanges() throws Exception {
+        User user = TestUsers.register(userService, "presign-stats");
+
+        byte[] body = "0123456789".getBytes(StandardCharsets.UTF_8);
+        FileData fileData = fileStorageService.storeFile(new ByteArrayInputStream(body), "stats.txt", "text/plain", null, user);
+        String token = presignedUrlService.createToken(fileData, Instant.now().plusSeconds(60));
+
+        mockMvc.perform(get("/api/dl/{token}", token)).andExpect(status().isOk());
+        // Resuming from the middle is the same download, and only sends the tail
+        mockMvc.perform(get("/api/dl/{token}", token).header("Range", "bytes=6-"))
+                .andExpect(status().isPartialContent())
+                .andExpect(content().string("6789"));
+        mockMvc.perform(get("/api/dl/{token}", token).header("Range", "bytes=0-1"))
+                .andExpect(status().isPartialContent());
+        fileAccessStatsService.flush();
+
+        Map<String, Object> stats = jdbcTemplate.queryForMap(
+                "SELECT download_count, bytes_served FROM file_access_stats WHERE file_id = ?", fileData.getId());
+        assertEquals(2L, ((Number) stats.get("download_count")).longValue());
+        assertEquals(10L + 4L + 2L, ((Number) stats.get("bytes_served")).longValue());
+    }
+
+    @Test
+    void invalidTokenIsForbidden() throws Exception {
+        mockMvc.perform(get("/api/dl/{token}", "bm90.c2lnbmVk"))
+                .andExpect(status().isForbidden());
+    }
+}
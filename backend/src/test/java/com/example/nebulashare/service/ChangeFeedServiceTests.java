@@ -0,0 +1,74 @@
+package com.example.nebulashare.service;
+
+import com.example.nebulashare.TestUsers;
+import com.example.nebulashare.model.User;
+import com.example.nebulashare.service.ChangeFeedService.ChangeBatch;
+import com.example.nebulashare.service.ChangeFeedService.Snapshot;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The background poll stays out of the way; the test polls itself
+@SpringBootTest(properties = {"db.replica.urls=", "changes.poll-interval-ms=3600000"})
+@ActiveProfiles("test")
+class ChangeFeedServiceTests {
+
+    @Autowired
+    private ChangeFeedService changeFeedService;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void snapshotListsExactlyTheFilesUpToItsCursor() {
+        User user = TestUsers.register(userService, "snapshot");
+        fileStorageService.storeFile(stream("a"), "a.txt", "text/plain", null, user);
+        fileStorageService.storeFile(stream("b"), "b.txt", "text/plain", null, user);
+
+        Snapshot snapshot = changeFeedService.getSnapshot(user);
+        assertEquals(2, snapshot.cursor());
+        assertEquals(2, snapshot.files().size());
+        assertTrue(changeFeedService.getChanges(user.getId(), snapshot.cursor(), 10).changes().isEmpty());
+    }
+
+    @Test
+    void waiterIsWokenByAChangeCommittedElsewhere() {
+        User user = TestUsers.register(userService, "polled");
+        DeferredResult<ChangeBatch> result = changeFeedService.awaitChanges(user.getId(), 0, 10, 10_000);
+        assertFalse(result.hasResult());
+
+        // Written straight to the database, as another instance would, so no local wake-up happens
+        jdbcTemplate.update("UPDATE users SET change_seq = change_seq + 1 WHERE id = ?", user.getId());
+        jdbcTemplate.update("INSERT INTO file_changes (user_id, seq, file_id, change_type, file_name) VALUES (?, 1, 'remote', 'CREATED', 'remote.txt')",
+                user.getId());
+
+        changeFeedService.pollSafely();
+        // The poll hands the wake-up to the notifier thread
+        await().atMost(Duration.ofSeconds(5)).until(result::hasResult);
+        ChangeBatch batch = (ChangeBatch) result.getResult();
+        assertEquals(1, batch.cursor());
+        assertEquals("remote", batch.changes().get(0).getFileId());
+    }
+
+    private static ByteArrayInputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.nebulashare.service;
+
+import com.example.nebulashare.TestUsers;
+import com.example.nebulashare.model.FileData;
+import com.example.nebulashare.model.User;
+import com.example.nebulashare.repository.FileAccessStatsRepository.TopFile;
+import com.example.nebulashare.repository.FileAccessStatsRepository.UserActivity;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.doThrow;
+
+@SpringBootTest(properties = {
+        "db.replica.urls=",
+        // Flushed by the tests only
+        "file.stats.flush-interval-ms=3600000",
+        // Any counter with nothing left to write is evicted by the next flush
+        "file.stats.idle-eviction-ms=-1"
+})
+@ActiveProfiles("test")
+class FileAccessStatsServiceTests {
+
+    @Autowired
+    private FileAccessStatsService fileAccessStatsService;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private AdminService adminService;
+
+    @Autowired
+    private UserService userService;
+
+    @MockitoSpyBean
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void flushWritesCountsAndRetriesThemAfterAFailure() {
+        User user = TestUsers.register(userService, "stats-flush");
+        FileData file = store("retry.txt", user);
+        fileAccessStatsService.recordDownload(file.getId());
+        fileAccessStatsService.recordBytesServed(file.getId(), 100);
+
+        doThrow(new QueryTimeoutException("lock wait timeout")).doCallRealMethod()
+                .when(jdbcTemplate).batchUpdate(startsWith("INSERT INTO file_access_stats"), anyCollection(), anyInt(), any());
+        fileAccessStatsService.flush();
+        assertEquals(0, rows(file.getId()));
+
+        fileAccessStatsService.recordDownload(file.getId());
+        fileAccessStatsService.flush();
+        assertEquals(Map.of("download_count", 2L, "bytes_served", 100L), stats(file.getId()));
+
+        // Nothing new, nothing written twice
+        fileAccessStatsService.flush();
+        assertEquals(Map.of("download_count", 2L, "bytes_served", 100L), stats(file.getId()));
+    }
+
+    @Test
+    void deletedFilesAreNotWrittenBack() {
+        User user = TestUsers.register(userService, "stats-deleted");
+        FileData file = store("deleted.txt", user);
+        fileAccessStatsService.recordDownload(file.getId());
+        fileAccessStatsService.flush();
+        assertEquals(1, rows(file.getId()));
+
+        fileAccessStatsService.recordDownload(file.getId());
+        fileStorageService.deleteFile(file.getId(), user);
+        // Counts for a file that never existed, as a download racing its delete would leave behind
+        fileAccessStatsService.recordDownload("no-such-file");
+        fileAccessStatsService.flush();
+
+        assertEquals(0, rows(file.getId()));
+        assertEquals(0, rows("no-such-file"));
+    }
+
+    @Test
+    void idleCountersAreEvictedWithoutLosingLaterDownloads() {
+        User user = TestUsers.register(userService, "stats-evicted");
+        FileData file = store("evicted.txt", user);
+        fileAccessStatsService.recordDownload(file.getId());
+        fileAccessStatsService.flush();
+        int tracked = fileAccessStatsService.trackedFiles();
+
+        // Everything is written, so the counter goes; the next download starts a new one
+        fileAccessStatsService.flush();
+        assertTrue(fileAccessStatsService.trackedFiles() < tracked);
+        fileAccessStatsService.recordDownload(file.getId());
+        fileAccessStatsService.flush();
+
+        assertEquals(2L, stats(file.getId()).get("download_count"));
+    }
+
+    @Test
+    void topFilesAndUserActivityAggregateFlushedCounts() {
+        User busy = TestUsers.register(userService, "stats-busy");
+        User quiet = TestUsers.register(userService, "stats-quiet");
+        FileData popular = store("popular.txt", busy);
+        FileData other = store("other.txt", busy);
+        FileData rare = store("rare.txt", quiet);
+        download(popular, 5, 50);
+        download(other, 2, 20);
+        download(rare, 1, 10);
+        fileAccessStatsService.flush();
+
+        Set<String> ours = Set.of(popular.getId(), other.getId(), rare.getId());
+        List<TopFile> topFiles = adminService.findTopFiles(500).stream().filter(top -> ours.contains(top.getFileId())).toList();
+        assertEquals(List.of("popular.txt", "other.txt", "rare.txt"), topFiles.stream().map(TopFile::getFileName).toList());
+        assertEquals("stats-busy", topFiles.get(0).getOwner());
+        assertEquals(250L, topFiles.get(0).getBytesServed());
+
+        List<UserActivity> activity = adminService.findUserActivity(500).stream()
+                .filter(user -> user.getUserId().equals(busy.getId()) || user.getUserId().equals(quiet.getId())).toList();
+        assertEquals(List.of("stats-busy", "stats-quiet"), activity.stream().map(UserActivity::getUsername).toList());
+        assertEquals(2L, activity.get(0).getFiles());
+        assertEquals(7L, activity.get(0).getDownloadCount());
+        assertEquals(250L + 40L, activity.get(0).getBytesServed());
+    }
+
+    private void download(FileData file, int times, long bytes) {
+        for (int i = 0; i < times; i++) {
+            fileAccessStatsService.recordDownload(file.getId());
+            fileAccessStatsService.recordBytesServed(file.getId(), bytes);
+        }
+    }
+
+    private FileData store(String name, User user) {
+        return fileStorageService.storeFile(new ByteArrayInputStream(name.getBytes(StandardCharsets.UTF_8)),
+                name, "text/plain", null, user);
+    }
+
+    private int rows(String fileId) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM file_access_stats WHERE file_id = ?", Integer.class, fileId);
+    }
+
+    private Map<String, Long> stats(String fileId) {
+        Map<String, Object> row = jdbcTemplate.queryForMap(
+                "SELECT download_count, bytes_served FROM file_access_stats WHERE file_id = ?", fileId);
+        return Map.of("download_count", ((Number) row.get("download_count")).longValue(),
+                "bytes_served", ((Number) row.get("bytes_served")).longValue());
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.nebulashare.service;
+
+import com.example.nebulashare.exception.FileStorageException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FileEncryptionServiceTests {
+
+    private static final int CHUNK = 32;
+    private static final int TAG = 16;
+
+    @TempDir
+    Path directory;
+
+    private final FileEncryptionService service = new FileEncryptionService(true, key(1), CHUNK);
+
+    @Test
+    void roundTripsAtChunkBoundaries() throws IOException {
+        for (int size : new int[]{0, 1, CHUNK - 1, CHUNK, CHUNK + 1, 3 * CHUNK - 1, 3 * CHUNK, 3 * CHUNK + 1}) {
+            byte[] plaintext = plaintext(size);
+            byte[] ciphertext = service.encrypt(plaintext);
+            assertArrayEquals(plaintext, service.decrypt(ciphertext), "in memory, size " + size);
+
+            Resource resource = service.decryptingResource(write(ciphertext));
+            assertEquals(size, resource.contentLength(), "length, size " + size);
+            try (InputStream in = resource.getInputStream()) {
+                assertArrayEquals(plaintext, in.readAllBytes(), "streamed, size " + size);
+            }
+        }
+    }
+
+    @Test
+    void tamperedChunkIsRejected() {
+        byte[] ciphertext = service.encrypt(plaintext(2 * CHUNK + 5));
+        for (int offset : new int[]{ciphertext.length - 1, ciphertext.length - CHUNK, ciphertext.length - 2 * CHUNK - TAG}) {
+            byte[] tampered = ciphertext.clone();
+            tampered[offset] ^= 1;
+            assertThrows(FileStorageException.class, () -> service.decrypt(tampered), "flipped byte at " + offset);
+        }
+
+        byte[] empty = service.encrypt(new byte[0]);
+        empty[empty.length - 1] ^= 1;
+        assertThrows(FileStorageException.class, () -> service.decrypt(empty));
+    }
+
+    @Test
+    void truncationAtAChunkBoundaryIsDetected() {
+        // Dropping whole trailing chunks leaves a non-final chunk at the end
+        byte[] ciphertext = service.encrypt(plaintext(3 * CHUNK));
+        assertThrows(FileStorageException.class,
+                () -> service.decrypt(Arrays.copyOf(ciphertext, ciphertext.length - (CHUNK + TAG))));
+
+        byte[] withPartialChunk = service.encrypt(plaintext(3 * CHUNK + 5));
+        assertThrows(FileStorageException.class,
+                () -> service.decrypt(Arrays.copyOf(withPartialChunk, withPartialChunk.length - (5 + TAG))));
+
+        // Cutting into a chunk is caught by the length check
+        assertThrows(FileStorageException.class, () -> service.decrypt(Arrays.copyOf(ciphertext, ciphertext.length - 3)));
+    }
+
+    @Test
+    void rangedReadsSkipToTheRequestedOffset() throws IOException {
+        byte[] plaintext = plaintext(5 * CHUNK + 7);
+        Resource resource = service.decryptingResource(write(service.encrypt(plaintext)));
+
+        int[][] ranges = {{0, 10}, {CHUNK - 3, 6}, {2 * CHUNK, CHUNK}, {4 * CHUNK + 30, 9}, {5 * CHUNK + 6, 1}};
+        for (int[] range : ranges) {
+            try (InputStream in = resource.getInputStream()) {
+                assertEquals(range[0], in.skip(range[0]));
+                assertArrayEquals(Arrays.copyOfRange(plaintext, range[0], range[0] + range[1]), in.readNBytes(range[1]),
+                        "range starting at " + range[0]);
+            }
+        }
+
+        try (InputStream in = resource.getInputStream()) {
+            assertEquals(plaintext.length, in.skip(Long.MAX_VALUE));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    void wrongMasterKeyCannotDecrypt() throws IOException {
+        byte[] ciphertext = service.encrypt(plaintext(CHUNK + 1));
+        FileEncryptionService other = new FileEncryptionService(true, key(2), CHUNK);
+
+        assertThrows(FileStorageException.class, () -> other.decrypt(ciphertext));
+        assertThrows(IOException.class, () -> other.decryptingResource(write(ciphertext)).getInputStream());
+    }
+
+    @Test
+    void invalidMasterKeyIsRejectedAtStartup() {
+        String shortKey = Base64.getEncoder().encodeToString(new byte[20]);
+        assertThrows(IllegalStateException.class, () -> new FileEncryptionService(true, shortKey, CHUNK));
+        assertThrows(IllegalStateException.class, () -> new FileEncryptionService(true, "not base64!", CHUNK));
+        assertThrows(IllegalStateException.class, () -> new FileEncryptionService(true, "", CHUNK));
+    }
+
+    private Path write(byte[] ciphertext) throws IOException {
+        return Files.write(Files.createTempFile(directory, "encrypted", ".bin"), ciphertext);
+    }
+
+    private static String key(int seed) {
+        byte[] key = new byte[32];
+        new Random(seed).nextBytes(key);
+        return Base64.getEncoder().encodeToString(key);
+    }
+
+    private static byte[] plaintext(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+}
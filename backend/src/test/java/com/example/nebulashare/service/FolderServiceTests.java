@@ -0,0 +1,90 @@
+package com.example.nebulashare.service;
+
+import com.example.nebulashare.TestUsers;
+import com.example.nebulashare.exception.FileStorageException;
+import com.example.nebulashare.model.FileData;
+import com.example.nebulashare.model.Folder;
+import com.example.nebulashare.model.User;
+import com.example.nebulashare.repository.FolderRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@SpringBootTest(properties = {
+        "db.replica.urls=",
+        "folder.delete.batch-size=2"
+})
+@ActiveProfiles("test")
+class FolderServiceTests {
+
+    @Autowired
+    private FolderService folderService;
+
+    @Autowired
+    private FolderRepository folderRepository;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void deletingAFolderRemovesItsSubtreeInBatches() {
+        User user = TestUsers.register(userService, "folder-delete");
+        Folder outer = folderService.createFolder("outer", null, user);
+        Folder deleted = folderService.createFolder("deleted", outer.getId(), user);
+        Folder child = folderService.createFolder("child", deleted.getId(), user);
+        Folder grandchild = folderService.createFolder("grandchild", child.getId(), user);
+        folderService.createFolder("empty", deleted.getId(), user);
+
+        FileData kept = store("kept.txt", outer, user);
+        List<String> storagePaths = new ArrayList<>();
+        for (Folder folder : List.of(deleted, deleted, deleted, child, child, grandchild, grandchild)) {
+            storagePaths.add(store("file.txt", folder, user).getStoragePath());
+        }
+
+        assertEquals(7, folderService.deleteFolder(deleted.getId(), user));
+
+        assertEquals(List.of(outer.getId()), jdbcTemplate.queryForList(
+                "SELECT id FROM folders WHERE user_id = ?", Long.class, user.getId()));
+        assertEquals(List.of(kept.getId()), jdbcTemplate.queryForList(
+                "SELECT id FROM files WHERE user_id = ?", String.class, user.getId()));
+        Folder remaining = folderRepository.findById(outer.getId()).orElseThrow();
+        assertEquals(kept.getFileSize(), remaining.getTotalSize());
+        assertEquals(1, remaining.getFileCount());
+        assertEquals(7, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM file_changes WHERE user_id = ? AND change_type = 'DELETED'", Integer.class, user.getId()));
+        for (String storagePath : storagePaths) {
+            assertThrows(FileStorageException.class, () -> fileStorageService.loadStoredFileAsResource(storagePath, false));
+        }
+    }
+
+    @Test
+    void deletingAFolderOfAnotherUserFails() {
+        User owner = TestUsers.register(userService, "folder-owner");
+        User other = TestUsers.register(userService, "folder-other");
+        Folder folder = folderService.createFolder("private", null, owner);
+
+        assertThrows(FileStorageException.class, () -> folderService.deleteFolder(folder.getId(), other));
+        assertEquals(1, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM folders WHERE id = ?", Integer.class, folder.getId()));
+    }
+
+    private FileData store(String name, Folder folder, User user) {
+        return fileStorageService.storeFile(new ByteArrayInputStream(name.getBytes(StandardCharsets.UTF_8)),
+                name, "text/plain", folder.getId(), user);
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.nebulashare.service;
+
+import com.example.nebulashare.TestUsers;
+import com.icegreen.greenmail.junit5.GreenMailExtension;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import jakarta.mail.internet.MimeMessage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+
+@SpringBootTest(properties = {
+        "db.replica.urls=",
+        "spring.mail.host=localhost",
+        "spring.mail.port=3025",
+        "mail.outbox.enabled=false",
+        "mail.outbox.backoff-base-ms=0",
+        "mail.outbox.max-send-ms=30000"
+})
+@ActiveProfiles("test")
+class MailOutboxServiceTests {
+
+    @RegisterExtension
+    static GreenMailExtension greenMail = new GreenMailExtension(ServerSetupTest.SMTP);
+
+    @Autowired
+    private MailOutboxService mailOutboxService;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @MockitoSpyBean
+    private JavaMailSender mailSender;
+
+    @Test
+    void signupMailIsDeliveredByTheDispatcher() throws Exception {
+        TestUsers.register(userService, "outbox-welcome");
+
+        assertEquals(0, greenMail.getReceivedMessages().length);
+        mailOutboxService.dispatch();
+
+        MimeMessage[] received = greenMail.getReceivedMessagesForDomain(TestUsers.email("outbox-welcome"));
+        assertEquals(1, received.length);
+        assertEquals("Welcome to NebulaShare", received[0].getSubject());
+        assertEquals(0, mailOutboxService.dispatch());
+    }
+
+    @Test
+    void notificationsForOneRecipientAreCoalesced() throws Exception {
+        mailOutboxService.enqueue("coalesce@nebulashare.test", "First", "first body", "share:a");
+        mailOutboxService.enqueue("coalesce@nebulashare.test", "First again", "newer body", "share:a");
+        mailOutboxService.enqueue("coalesce@nebulashare.test", "Second", "second body", "share:b");
+        mailOutboxService.dispatch();
+
+        MimeMessage[] received = greenMail.getReceivedMessagesForDomain("coalesce@nebulashare.test");
+        assertEquals(1, received.length);
+        assertEquals("You have 2 new notifications from NebulaShare", received[0].getSubject());
+        String body = received[0].getContent().toString();
+        assertTrue(body.contains("newer body") && body.contains("second body") && !body.contains("first body"));
+    }
+
+    @Test
+    void messageLeasedMidSendIsNotOverwritten() throws Exception {
+        mailOutboxService.enqueue("mid-send@nebulashare.test", "Original", "original body", "share:mid-send");
+        // What a dispatcher's claim leaves behind while it is still talking to SMTP
+        jdbcTemplate.update("UPDATE mail_outbox SET attempts = 1, next_attempt_at = DATEADD('MINUTE', 1, CURRENT_TIMESTAMP) WHERE recipient = ?",
+                "mid-send@nebulashare.test");
+
+        mailOutboxService.enqueue("mid-send@nebulashare.test", "Updated", "updated body", "share:mid-send");
+
+        assertEquals(List.of("Original", "Updated"), jdbcTemplate.queryForList(
+                "SELECT subject FROM mail_outbox WHERE recipient = ? ORDER BY id", String.class, "mid-send@nebulashare.test"));
+        mailOutboxService.dispatch();
+        MimeMessage[] received = greenMail.getReceivedMessagesForDomain("mid-send@nebulashare.test");
+        assertEquals(1, received.length);
+        assertEquals("Updated", received[0].getSubject());
+    }
+
+    @Test
+    void failedDeliveryIsRetried() {
+        mailOutboxService.enqueue("retry@nebulashare.test", "Retry", "retry body", null);
+        greenMail.stop();
+        mailOutboxService.dispatch();
+
+        Map<String, Object> row = jdbcTemplate.queryForMap("SELECT status, attempts FROM mail_outbox WHERE recipient = ?", "retry@nebulashare.test");
+        assertEquals("PENDING", row.get("status"));
+        assertEquals(1, ((Number) row.get("attempts")).intValue());
+
+        greenMail.start();
+        mailOutboxService.dispatch();
+        assertEquals(1, greenMail.getReceivedMessagesForDomain("retry@nebulashare.test").length);
+        assertEquals("SENT", jdbcTemplate.queryForObject("SELECT status FROM mail_outbox WHERE recipient = ?", String.class, "retry@nebulashare.test"));
+    }
+
+    @Test
+    void mailsWhoseLeaseIsLostAreNeitherSentNorMarked() throws Exception {
+        mailOutboxService.enqueue("lease-first@nebulashare.test", "First", "first body", null);
+        mailOutboxService.enqueue("lease-second@nebulashare.test", "Second", "second body", null);
+        // Another node claims both rows while the first mail is on the wire, as if this dispatcher's lease had run out
+        doAnswer(invocation -> {
+            MimeMessage first = invocation.getArgument(0);
+            if (first.getAllRecipients()[0].toString().equals("lease-first@nebulashare.test")) {
+                jdbcTemplate.update("UPDATE mail_outbox SET lease_owner = 'other-node' WHERE recipient LIKE 'lease-%'");
+            }
+            return invocation.callRealMethod();
+        }).when(mailSender).send(any(MimeMessage[].class));
+
+        mailOutboxService.dispatch();
+
+        // The lease allows one mail per connection here, so the second was checked again and skipped
+        assertEquals(1, greenMail.getReceivedMessagesForDomain("lease-first@nebulashare.test").length);
+        assertEquals(0, greenMail.getReceivedMessagesForDomain("lease-second@nebulashare.test").length);
+        assertEquals(List.of("PENDING:other-node", "PENDING:other-node"), jdbcTemplate.queryForList(
+                "SELECT CONCAT(status, ':', lease_owner) FROM mail_outbox WHERE recipient LIKE 'lease-%' ORDER BY id", String.class));
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.nebulashare.service;
+
+import com.example.nebulashare.model.FileData;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PresignedUrlServiceTests {
+
+    private static final String SECRET = "presign-test-secret";
+
+    private final PresignedUrlService service = new PresignedUrlService(SECRET, "jwt-secret", 300, 3600);
+
+    @Test
+    void validTokenRoundTrips() {
+        Instant expiresAt = Instant.now().plusSeconds(60);
+        PresignedUrlService.PresignedFile file = service.verifyToken(service.createToken(newFile(), expiresAt)).orElseThrow();
+
+        assertEquals("file-1", file.fileId());
+        assertEquals("segment:abc", file.storagePath());
+        assertEquals(42, file.fileSize());
+        assertEquals("report \"final\".pdf", file.fileName());
+        assertEquals(expiresAt.getEpochSecond(), file.expiresAt().getEpochSecond());
+    }
+
+    @Test
+    void tamperedTokenIsRejected() {
+        String token = service.createToken(newFile(), Instant.now().plusSeconds(60));
+        int separator = token.indexOf('.');
+        byte[] payload = Base64.getUrlDecoder().decode(token.substring(0, separator));
+        payload[payload.length - 9] ^= 1;
+        String tampered = Base64.getUrlEncoder().withoutPadding().encodeToString(payload) + token.substring(separator);
+
+        assertTrue(service.verifyToken(tampered).isEmpty());
+        assertTrue(service.verifyToken(token.substring(0, token.length() - 2)).isEmpty());
+        assertTrue(service.verifyToken("not-a-token").isEmpty());
+    }
+
+    @Test
+    void expiredTokenIsRejected() {
+        String token = service.createToken(newFile(), Instant.now().minusSeconds(1));
+
+        assertTrue(service.verifyToken(token).isEmpty());
+    }
+
+    @Test
+    void tokenWithAnotherVersionIsRejected() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(1);
+        out.writeUTF("file-1");
+        out.writeUTF("segment:abc");
+        out.writeLong(42);
+        out.writeUTF("text/plain");
+        out.writeUTF("old.txt");
+        out.writeLong(Instant.now().plusSeconds(60).getEpochSecond());
+        byte[] payload = bytes.toByteArray();
+
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(SECRET.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        String token = encoder.encodeToString(payload) + "." + encoder.encodeToString(mac.doFinal(payload));
+
+        assertTrue(service.verifyToken(token).isEmpty());
+    }
+
+    @Test
+    void signingKeyIsNotTheJwtSecret() {
+        PresignedUrlService derived = new PresignedUrlService("", SECRET, 300, 3600);
+        String token = derived.createToken(newFile(), Instant.now().plusSeconds(60));
+
+        assertTrue(derived.verifyToken(token).isPresent());
+        // A token signed with the raw JWT secret must not verify under the derived key
+        assertTrue(derived.verifyToken(service.createToken(newFile(), Instant.now().plusSeconds(60))).isEmpty());
+    }
+
+    private static FileData newFile() {
+        FileData fileData = new FileData();
+        fileData.setId("file-1");
+        fileData.setFileName("report \"final\".pdf");
+        fileData.setFileType("application/pdf");
+        fileData.setFileSize(42L);
+        fileData.setFilePath("segment:abc");
+        return fileData;
+    }
+}
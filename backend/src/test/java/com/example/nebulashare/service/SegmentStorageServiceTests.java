@@ -0,0 +1,172 @@
+package com.example.nebulashare.service;
+
+import com.example.nebulashare.exception.FileStorageException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SegmentStorageServiceTests {
+
+    @TempDir
+    Path directory;
+
+    private final List<SegmentStorageService> opened = new ArrayList<>();
+
+    @AfterEach
+    void closeAll() {
+        opened.forEach(SegmentStorageService::shutdown);
+    }
+
+    @Test
+    void appendedFilesCanBeReadBack() {
+        SegmentStorageService storage = open(1024, FileStorageService.FsyncPolicy.NONE);
+        String first = storage.put(bytes("first"));
+        String second = storage.put(new byte[0]);
+
+        assertTrue(SegmentStorageService.isSegmentPath(first));
+        assertArrayEquals(bytes("first"), storage.read(first));
+        assertArrayEquals(new byte[0], storage.read(second));
+        assertThrows(FileStorageException.class, () -> storage.read(SegmentStorageService.PATH_PREFIX + "missing"));
+    }
+
+    @Test
+    void tombstonedFilesStayDeletedAfterRestart() {
+        SegmentStorageService storage = open(1024, FileStorageService.FsyncPolicy.DATA);
+        String kept = storage.put(bytes("kept"));
+        String deleted = storage.put(bytes("deleted"));
+        storage.delete(deleted);
+
+        assertFalse(storage.exists(deleted));
+        assertThrows(FileStorageException.class, () -> storage.read(deleted));
+
+        storage.shutdown();
+        opened.remove(storage);
+        SegmentStorageService reopened = open(1024, FileStorageService.FsyncPolicy.DATA);
+        assertArrayEquals(bytes("kept"), reopened.read(kept));
+        assertFalse(reopened.exists(deleted));
+    }
+
+    @Test
+    void recoveryReplaysRecordsWrittenAfterTheSnapshot() {
+        SegmentStorageService storage = open(1024, FileStorageService.FsyncPolicy.NONE);
+        String beforeSnapshot = storage.put(bytes("before"));
+        String deletedLater = storage.put(bytes("deleted later"));
+        // Compaction has nothing to do here but writes the index snapshot
+        storage.compact();
+        assertTrue(Files.exists(directory.resolve("index.snapshot")));
+
+        String afterSnapshot = storage.put(bytes("after"));
+        storage.delete(deletedLater);
+
+        // No shutdown, so no fresh snapshot: the new instance has to replay the tail
+        SegmentStorageService recovered = open(1024, FileStorageService.FsyncPolicy.NONE);
+        assertArrayEquals(bytes("before"), recovered.read(beforeSnapshot));
+        assertArrayEquals(bytes("after"), recovered.read(afterSnapshot));
+        assertFalse(recovered.exists(deletedLater));
+    }
+
+    @Test
+    void tornTailIsTruncatedOnRecovery() throws IOException {
+        SegmentStorageService storage = open(1024, FileStorageService.FsyncPolicy.NONE);
+        String complete = storage.put(bytes("complete"));
+        String torn = storage.put(bytes("torn record"));
+
+        Path segment = segmentFiles().get(0);
+        long fullSize = Files.size(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(fullSize - 3);
+        }
+
+        SegmentStorageService recovered = open(1024, FileStorageService.FsyncPolicy.NONE);
+        assertArrayEquals(bytes("complete"), recovered.read(complete));
+        assertFalse(recovered.exists(torn));
+        assertTrue(Files.size(segment) < fullSize - 3);
+
+        // Appends continue cleanly after the truncated tail
+        String next = recovered.put(bytes("next"));
+        SegmentStorageService again = open(1024, FileStorageService.FsyncPolicy.NONE);
+        assertArrayEquals(bytes("next"), again.read(next));
+        assertArrayEquals(bytes("complete"), again.read(complete));
+    }
+
+    @Test
+    void compactionRewritesLiveRecordsAndDropsTheSegment() throws IOException {
+        // Small segments, so a handful of records fills one up
+        SegmentStorageService storage = open(200, FileStorageService.FsyncPolicy.NONE);
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            paths.add(storage.put(bytes("record-" + i)));
+        }
+        Path firstSegment = segmentFiles().get(0);
+        assertTrue(segmentFiles().size() > 1);
+
+        // Everything but the first record goes; the first segment is now mostly garbage
+        for (int i = 1; i < paths.size(); i++) {
+            storage.delete(paths.get(i));
+        }
+        storage.compact();
+
+        assertFalse(Files.exists(firstSegment));
+        assertArrayEquals(bytes("record-0"), storage.read(paths.get(0)));
+
+        SegmentStorageService reopened = open(200, FileStorageService.FsyncPolicy.NONE);
+        assertArrayEquals(bytes("record-0"), reopened.read(paths.get(0)));
+        for (int i = 1; i < paths.size(); i++) {
+            assertFalse(reopened.exists(paths.get(i)));
+        }
+    }
+
+    @Test
+    void concurrentSyncedAppendsAreAllReadable() throws Exception {
+        SegmentStorageService storage = open(1 << 20, FileStorageService.FsyncPolicy.DATA);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> puts = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                byte[] data = bytes("concurrent-" + i);
+                puts.add(executor.submit(() -> storage.put(data)));
+            }
+            for (int i = 0; i < puts.size(); i++) {
+                assertArrayEquals(bytes("concurrent-" + i), storage.read(puts.get(i).get()));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private SegmentStorageService open(long maxSegmentSize, FileStorageService.FsyncPolicy fsyncPolicy) {
+        SegmentStorageService storage = new SegmentStorageService(true, directory.toString(), 65536, maxSegmentSize, 0.5, fsyncPolicy);
+        storage.init();
+        opened.add(storage);
+        return storage;
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().startsWith("segment-")).sorted().toList();
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
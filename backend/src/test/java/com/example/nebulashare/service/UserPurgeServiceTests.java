@@ -0,0 +1,144 @@
+package com.example.nebulashare.service;
+
+import com.example.nebulashare.TestUsers;
+import com.example.nebulashare.exception.FileStorageException;
+import com.example.nebulashare.model.FileData;
+import com.example.nebulashare.model.Folder;
+import com.example.nebulashare.model.User;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+
+@SpringBootTest(properties = {
+        "db.replica.urls=",
+        "user.purge.batch-size=2",
+        "user.purge.files-per-second=0",
+        // Long enough that the background resume only runs at startup; the tests resume jobs themselves
+        "user.purge.lease-ms=60000"
+})
+@ActiveProfiles("test")
+class UserPurgeServiceTests {
+
+    @Autowired
+    private UserPurgeService userPurgeService;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private FolderService folderService;
+
+    @Autowired
+    private FileAccessStatsService fileAccessStatsService;
+
+    @MockitoSpyBean
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void purgeRemovesEverythingTheUserOwns() {
+        User user = TestUsers.register(userService, "purged");
+        Folder folder = folderService.createFolder("docs", null, user);
+        List<String> fileIds = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            FileData fileData = fileStorageService.storeFile(new ByteArrayInputStream(("file " + i).getBytes(StandardCharsets.UTF_8)),
+                    "file-" + i + ".txt", "text/plain", i % 2 == 0 ? folder.getId() : null, user);
+            fileIds.add(fileData.getId());
+            fileAccessStatsService.recordDownload(fileData.getId());
+        }
+
+        userPurgeService.startPurge(user);
+        awaitStatus(user.getId(), "COMPLETED");
+
+        assertEquals(0, count("SELECT COUNT(*) FROM users WHERE id = ?", user.getId()));
+        assertEquals(0, count("SELECT COUNT(*) FROM files WHERE user_id = ?", user.getId()));
+        assertEquals(0, count("SELECT COUNT(*) FROM folders WHERE user_id = ?", user.getId()));
+        assertEquals(0, count("SELECT COUNT(*) FROM file_changes WHERE user_id = ?", user.getId()));
+        assertEquals(5, count("SELECT deleted_files FROM user_purge_jobs WHERE user_id = ?", user.getId()));
+
+        // Pending download counts went with the files, so a flush does not bring the stats rows back
+        fileAccessStatsService.flush();
+        for (String fileId : fileIds) {
+            assertEquals(0, count("SELECT COUNT(*) FROM file_access_stats WHERE file_id = ?", fileId));
+        }
+    }
+
+    @Test
+    void jobLeasedByAnotherNodeIsOnlyTakenOverOnceTheLeaseExpires() {
+        User user = TestUsers.register(userService, "leased");
+        jdbcTemplate.update("UPDATE users SET enabled = FALSE WHERE id = ?", user.getId());
+        jdbcTemplate.update("INSERT INTO user_purge_jobs (user_id, status, total_files, deleted_files, lease_owner, lease_until) "
+                + "VALUES (?, 'RUNNING', 0, 0, 'other-node', ?)", user.getId(), Timestamp.valueOf(LocalDateTime.now().plusHours(1)));
+
+        userPurgeService.resumeJobs();
+        assertEquals(1, count("SELECT COUNT(*) FROM users WHERE id = ?", user.getId()));
+        assertEquals("RUNNING", status(user.getId()));
+
+        jdbcTemplate.update("UPDATE user_purge_jobs SET lease_until = ? WHERE user_id = ?",
+                Timestamp.valueOf(LocalDateTime.now().minusSeconds(1)), user.getId());
+        userPurgeService.resumeJobs();
+        assertEquals("COMPLETED", status(user.getId()));
+        assertEquals(0, count("SELECT COUNT(*) FROM users WHERE id = ?", user.getId()));
+    }
+
+    @Test
+    void fileUploadedWhileTheJobRunsIsRemovedWithTheUser() {
+        User user = TestUsers.register(userService, "late-upload");
+        jdbcTemplate.update("UPDATE users SET enabled = FALSE WHERE id = ?", user.getId());
+        jdbcTemplate.update("INSERT INTO user_purge_jobs (user_id, status, total_files, deleted_files) VALUES (?, 'RUNNING', 0, 0)",
+                user.getId());
+
+        // An upload authenticated before the account was disabled commits after the files have been swept
+        List<FileData> lateUploads = new ArrayList<>();
+        doAnswer(invocation -> {
+            if (lateUploads.isEmpty()) {
+                lateUploads.add(fileStorageService.storeFile(new ByteArrayInputStream("late".getBytes(StandardCharsets.UTF_8)),
+                        "late.txt", "text/plain", null, user));
+            }
+            return invocation.callRealMethod();
+        }).when(jdbcTemplate).update(eq("DELETE FROM folders WHERE user_id = ? LIMIT ?"), any(Object[].class));
+
+        userPurgeService.resumeJobs();
+
+        assertEquals(1, lateUploads.size());
+        assertEquals("COMPLETED", status(user.getId()));
+        assertEquals(0, count("SELECT COUNT(*) FROM users WHERE id = ?", user.getId()));
+        assertEquals(0, count("SELECT COUNT(*) FROM files WHERE user_id = ?", user.getId()));
+        assertEquals(1, count("SELECT deleted_files FROM user_purge_jobs WHERE user_id = ?", user.getId()));
+        assertThrows(FileStorageException.class, () -> fileStorageService.loadStoredFileAsResource(
+                lateUploads.get(0).getStoragePath(), lateUploads.get(0).isEncrypted()));
+    }
+
+    // The worker picks a new job up after the request's transaction commits
+    private void awaitStatus(Long userId, String status) {
+        await().atMost(Duration.ofSeconds(10)).until(() -> status(userId), status::equals);
+    }
+
+    private String status(Long userId) {
+        return jdbcTemplate.queryForObject("SELECT status FROM user_purge_jobs WHERE user_id = ?", String.class, userId);
+    }
+
+    private long count(String sql, Object... args) {
+        return jdbcTemplate.queryForObject(sql, Long.class, args);
+    }
+}